@@ -0,0 +1,249 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.atomic.LongAdder;
+
+import edu.princeton.cs.algs4.Digraph;
+
+// distance labels for a rooted DAG: every vertex stores all of its ancestors
+// (itself included) with their distances, sorted by ancestor id. a shortest
+// ancestral path query is then a merge of two short sorted lists. labels are
+// kept per vertex so relabel() can replace the ones an edge insertion changes.
+public class AncestorIndex {
+	private int[][] labelAncestors;
+	private int[][] labelDistances;
+	private final long buildNanos;
+	private final LongAdder queries = new LongAdder();
+	private final LongAdder queryNanos = new LongAdder();
+
+	// the graph must be a DAG, e.g. one accepted by WordNet's isRootedDAG
+	public AncestorIndex(Digraph g) {
+		long start = System.nanoTime();
+		int n = g.V();
+
+		// visit vertices parents first, so every parent label exists when a
+		// child's label is merged from them
+		Digraph reverse = g.reverse();
+		int[] remaining = new int[n];
+		int[] order = new int[n];
+		int head = 0, tail = 0;
+		for (int v = 0; v < n; v++) {
+			remaining[v] = g.outdegree(v);
+			if (remaining[v] == 0)
+				order[tail++] = v;
+		}
+		while (head < tail) {
+			int v = order[head++];
+			for (int child : reverse.adj(v))
+				if (--remaining[child] == 0)
+					order[tail++] = child;
+		}
+		if (tail != n)
+			throw new IllegalArgumentException();
+
+		labelAncestors = new int[n][];
+		labelDistances = new int[n][];
+		int[] best = new int[n];
+		int[] stamp = new int[n];
+		int[] touched = new int[n];
+		for (int i = 0; i < n; i++) {
+			int v = order[i];
+			int count = 0;
+			int generation = i + 1;
+			stamp[v] = generation;
+			best[v] = 0;
+			touched[count++] = v;
+			for (int parent : g.adj(v)) {
+				int[] pa = labelAncestors[parent];
+				int[] pd = labelDistances[parent];
+				for (int j = 0; j < pa.length; j++) {
+					int a = pa[j];
+					if (stamp[a] != generation) {
+						stamp[a] = generation;
+						best[a] = pd[j] + 1;
+						touched[count++] = a;
+					} else if (pd[j] + 1 < best[a]) {
+						best[a] = pd[j] + 1;
+					}
+				}
+			}
+
+			int[] la = Arrays.copyOf(touched, count);
+			Arrays.sort(la);
+			int[] ld = new int[count];
+			for (int j = 0; j < count; j++)
+				ld[j] = best[la[j]];
+			labelAncestors[v] = la;
+			labelDistances[v] = ld;
+		}
+		buildNanos = System.nanoTime() - start;
+	}
+
+	// recomputes the labels of the given vertices from their parents' labels in g.
+	// vertices must be listed parents first, and every parent outside the list
+	// must already have an up to date label. not safe during concurrent queries
+	public void relabel(Digraph g, int[] vertices) {
+		int n = g.V();
+		if (n > labelAncestors.length) {
+			labelAncestors = Arrays.copyOf(labelAncestors, n);
+			labelDistances = Arrays.copyOf(labelDistances, n);
+		}
+
+		for (int v : vertices) {
+			int size = 1;
+			for (int parent : g.adj(v))
+				size += labelAncestors[parent].length;
+
+			// (ancestor, distance) pairs sorted as longs put the smallest distance
+			// of every ancestor first
+			long[] pairs = new long[size];
+			int k = 0;
+			pairs[k++] = (long) v << 32;
+			for (int parent : g.adj(v)) {
+				int[] pa = labelAncestors[parent];
+				int[] pd = labelDistances[parent];
+				for (int j = 0; j < pa.length; j++)
+					pairs[k++] = ((long) pa[j] << 32) | (pd[j] + 1);
+			}
+			Arrays.sort(pairs);
+
+			int[] la = new int[size];
+			int[] ld = new int[size];
+			int count = 0;
+			for (int j = 0; j < size; j++) {
+				int a = (int) (pairs[j] >>> 32);
+				if (count == 0 || la[count - 1] != a) {
+					la[count] = a;
+					ld[count++] = (int) pairs[j];
+				}
+			}
+			labelAncestors[v] = Arrays.copyOf(la, count);
+			labelDistances[v] = Arrays.copyOf(ld, count);
+		}
+	}
+
+	// {length, ancestor} of a shortest ancestral path between any vertex in v and
+	// any vertex in w, ties broken towards the smallest ancestor; {-1, -1} if none
+	public int[] query(Iterable<Integer> v, Iterable<Integer> w) {
+		if (v == null || w == null)
+			throw new IllegalArgumentException();
+		long start = System.nanoTime();
+		int[] result = closest(labels(v), labels(w));
+		queries.increment();
+		queryNanos.add(System.nanoTime() - start);
+		return result;
+	}
+
+	// ancestorDistances(v), except that a single vertex's own label is returned
+	// without a copy
+	private int[][] labels(Iterable<Integer> v) {
+		Iterator<Integer> vertices = v.iterator();
+		if (vertices.hasNext()) {
+			int first = vertices.next();
+			if (!vertices.hasNext())
+				return new int[][] { labelAncestors[first], labelDistances[first] };
+		}
+		return ancestorDistances(v);
+	}
+
+	// the labels of the vertices in v merged into one {ancestors, distances}
+	// list, keeping the smallest distance per ancestor
+	public int[][] ancestorDistances(Iterable<Integer> v) {
+		if (v == null)
+			throw new IllegalArgumentException();
+		int[] mergedAncestors = new int[0];
+		int[] mergedDistances = new int[0];
+		for (int a : v) {
+			int[] aa = labelAncestors[a], ad = labelDistances[a];
+			int[] na = new int[mergedAncestors.length + aa.length];
+			int[] nd = new int[na.length];
+			int i = 0, j = 0, k = 0;
+			while (i < mergedAncestors.length || j < aa.length) {
+				if (j == aa.length || (i < mergedAncestors.length && mergedAncestors[i] < aa[j])) {
+					na[k] = mergedAncestors[i];
+					nd[k++] = mergedDistances[i++];
+				} else if (i == mergedAncestors.length || aa[j] < mergedAncestors[i]) {
+					na[k] = aa[j];
+					nd[k++] = ad[j++];
+				} else {
+					na[k] = aa[j];
+					nd[k++] = Math.min(mergedDistances[i++], ad[j++]);
+				}
+			}
+			mergedAncestors = Arrays.copyOf(na, k);
+			mergedDistances = Arrays.copyOf(nd, k);
+		}
+		return new int[][] { mergedAncestors, mergedDistances };
+	}
+
+	// length of a shortest ancestral path between two lists returned by
+	// ancestorDistances(), -1 if they share no ancestor
+	public static int length(int[][] a, int[][] b) {
+		return closest(a, b)[0];
+	}
+
+	// {length, ancestor} from one merge of two sorted {ancestors, distances}
+	// lists, ties broken towards the smallest ancestor; {-1, -1} if none
+	private static int[] closest(int[][] a, int[][] b) {
+		int bestLength = Integer.MAX_VALUE;
+		int bestAncestor = -1;
+		int i = 0, j = 0;
+		while (i < a[0].length && j < b[0].length) {
+			if (a[0][i] < b[0][j]) {
+				i++;
+			} else if (a[0][i] > b[0][j]) {
+				j++;
+			} else {
+				// ancestors come in increasing order, so the first one at a
+				// length is the smallest
+				int length = a[1][i] + b[1][j];
+				if (length < bestLength) {
+					bestLength = length;
+					bestAncestor = a[0][i];
+				}
+				i++;
+				j++;
+			}
+		}
+		return (bestAncestor == -1) ? (new int[] { -1, -1 }) : (new int[] { bestLength, bestAncestor });
+	}
+
+	// number of (ancestor, distance) entries over all labels
+	public long labelEntries() {
+		long entries = 0;
+		for (int[] label : labelAncestors)
+			if (label != null)
+				entries += label.length;
+		return entries;
+	}
+
+	public double buildMillis() {
+		return buildNanos / 1e6;
+	}
+
+	// heap used by the label arrays, in bytes
+	public long memoryBytes() {
+		long bytes = 2 * (16 + 4L * labelAncestors.length);
+		for (int[] label : labelAncestors)
+			if (label != null)
+				bytes += 2 * ((16 + 4L * label.length + 7) & ~7L);
+		return bytes;
+	}
+
+	public long queries() {
+		return queries.sum();
+	}
+
+	// mean latency of query() so far, in microseconds
+	public double averageQueryMicros() {
+		long count = queries.sum();
+		return (count == 0) ? (0.0) : (queryNanos.sum() / 1e3 / count);
+	}
+
+	@Override
+	public String toString() {
+		long entries = labelEntries();
+		return String.format("labels=%d (%.1f per vertex) build=%.1fms memory=%dB queries=%d avgQuery=%.2fus",
+				entries, (double) entries / labelAncestors.length, buildMillis(), memoryBytes(), queries(),
+				averageQueryMicros());
+	}
+}
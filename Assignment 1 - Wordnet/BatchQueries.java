@@ -0,0 +1,145 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+// streams one query per line through a worker pool: lines are read in blocks,
+// each block is answered by one worker, and answers are written in input order
+// while later blocks are still running. afterwards the throughput and the
+// p50/p99 per-query latency are printed to stderr.
+public class BatchQueries {
+	private static final int BLOCK_SIZE = 4096;
+	// latency histogram: values below 16ns get their own bucket, above that
+	// every power of two is split into 16 buckets (about 6% resolution)
+	private static final int BUCKETS = 1024;
+
+	private final Function<String, String> query;
+	private final int threads;
+
+	// query maps an input line to its output line; it must be safe to call
+	// from several threads at once
+	public BatchQueries(Function<String, String> query, int threads) {
+		if (query == null || threads <= 0)
+			throw new IllegalArgumentException();
+		this.query = query;
+		this.threads = threads;
+	}
+
+	// answers every line of the file, or of stdin if filename is null, to stdout
+	public void run(String filename) throws IOException {
+		Reader reader = (filename == null) ? (new InputStreamReader(System.in)) : (new FileReader(filename));
+		try (BufferedReader in = new BufferedReader(reader, 1 << 16);
+				Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16)) {
+			run(in, out);
+		}
+	}
+
+	public void run(BufferedReader in, Writer out) throws IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		ArrayDeque<Future<Block>> pending = new ArrayDeque<Future<Block>>();
+		long[] histogram = new long[BUCKETS];
+		long queries = 0;
+		long start = System.nanoTime();
+		try {
+			boolean done = false;
+			while (!done) {
+				String[] lines = new String[BLOCK_SIZE];
+				int count = 0;
+				String line;
+				while (count < BLOCK_SIZE && (line = in.readLine()) != null)
+					lines[count++] = line;
+				done = count < BLOCK_SIZE;
+				if (count > 0) {
+					int size = count;
+					pending.add(pool.submit(() -> answer(lines, size)));
+				}
+
+				// keep a bounded number of blocks in flight and write the oldest
+				// ones as soon as they are ready
+				while (!pending.isEmpty() && (done || pending.size() > 2 * threads || pending.peek().isDone())) {
+					Block block = pending.poll().get();
+					for (int i = 0; i < block.answers.length; i++) {
+						out.write(block.answers[i]);
+						out.write('\n');
+					}
+					for (int i = 0; i < BUCKETS; i++)
+						histogram[i] += block.histogram[i];
+					queries += block.answers.length;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+		out.flush();
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.err.printf("%d queries in %.3fs (%.0f queries/s), latency p50=%.1fus p99=%.1fus%n", queries, seconds,
+				queries / seconds, percentile(histogram, queries, 0.50) / 1e3,
+				percentile(histogram, queries, 0.99) / 1e3);
+	}
+
+	private Block answer(String[] lines, int count) {
+		Block block = new Block(count);
+		for (int i = 0; i < count; i++) {
+			long start = System.nanoTime();
+			String answer;
+			try {
+				answer = query.apply(lines[i]);
+			} catch (IllegalArgumentException e) {
+				answer = "invalid query: " + lines[i];
+			}
+			block.histogram[bucket(System.nanoTime() - start)]++;
+			block.answers[i] = answer;
+		}
+		return block;
+	}
+
+	private static int bucket(long nanos) {
+		if (nanos < 16)
+			return (int) Math.max(0, nanos);
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		return (exponent - 3) * 16 + (int) ((nanos >>> (exponent - 4)) & 15);
+	}
+
+	// lower bound of the bucket, in nanoseconds
+	private static long bucketValue(int bucket) {
+		if (bucket < 16)
+			return bucket;
+		return (16L + bucket % 16) << (bucket / 16 - 1);
+	}
+
+	private static long percentile(long[] histogram, long total, double p) {
+		long rank = (long) Math.ceil(p * total);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += histogram[i];
+			if (seen >= rank && seen > 0)
+				return bucketValue(i);
+		}
+		return 0;
+	}
+
+	private static class Block {
+		private final String[] answers;
+		private final long[] histogram = new long[BUCKETS];
+
+		Block(int count) {
+			answers = new String[count];
+		}
+	}
+}
@@ -0,0 +1,24 @@
+// a noun together with its distance (as in WordNet.distance) from a query noun
+public class NounDistance {
+
+	private final String noun;
+	private final int distance;
+
+	public NounDistance(String noun, int distance) {
+		this.noun = noun;
+		this.distance = distance;
+	}
+
+	public String getNoun() {
+		return noun;
+	}
+
+	public int getDistance() {
+		return distance;
+	}
+
+	@Override
+	public String toString() {
+		return noun + " " + distance;
+	}
+}
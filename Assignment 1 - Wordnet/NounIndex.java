@@ -0,0 +1,231 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+// compact synset and noun tables: an id-indexed array of synset strings, a CSR
+// layout (offsets/ids) for noun -> synset ids, and an open-addressing table
+// from noun string to noun number. no boxed keys and no per-noun collections.
+// synsets added after construction keep the CSR arrays frozen: their ids go to
+// a small per-noun overflow list instead.
+public class NounIndex {
+	private String[] synsets;
+	private int synsetCount;
+	private String[] nouns;
+	private int nounCount;
+	private final int[] offsets;
+	private final int[] ids;
+	// synset ids added by add(), indexed by noun number; null if there are none
+	private int[][] addedIds;
+	// noun number + 1 per slot, 0 if empty; linear probing over a power of two
+	private int[] table;
+
+	// splits every synset into its space separated nouns
+	public NounIndex(String[] synsets) {
+		this.synsets = synsets;
+		synsetCount = synsets.length;
+
+		int total = 0;
+		for (String synset : synsets)
+			total += countNouns(synset);
+
+		// first pass numbers the nouns and counts their synsets, the second
+		// fills the CSR arrays in synset order
+		String[] names = new String[total];
+		int[] nounOf = new int[total];
+		int[] counts = new int[total + 1];
+		table = new int[tableSize(total)];
+		int nounCount = 0;
+		int k = 0;
+		for (String synset : synsets) {
+			int start = 0;
+			while (start <= synset.length()) {
+				int end = synset.indexOf(' ', start);
+				if (end == -1)
+					end = synset.length();
+				String noun = synset.substring(start, end);
+				int number = find(noun, names);
+				if (number == -1) {
+					number = nounCount++;
+					names[number] = noun;
+					insert(noun, number);
+				}
+				counts[number + 1]++;
+				nounOf[k++] = number;
+				start = end + 1;
+			}
+		}
+
+		this.nounCount = nounCount;
+		nouns = Arrays.copyOf(names, nounCount);
+		addedIds = new int[nounCount][];
+		offsets = new int[nounCount + 1];
+		for (int i = 0; i < nounCount; i++)
+			offsets[i + 1] = offsets[i] + counts[i + 1];
+		ids = new int[total];
+		int[] next = Arrays.copyOf(offsets, nounCount);
+		k = 0;
+		for (int id = 0; id < synsets.length; id++) {
+			int n = countNouns(synsets[id]);
+			for (int j = 0; j < n; j++)
+				ids[next[nounOf[k++]]++] = id;
+		}
+	}
+
+	// rebuilds the lookup table over tables previously read from this index
+	public NounIndex(String[] synsets, String[] nouns, int[] offsets, int[] ids) {
+		this.synsets = synsets;
+		synsetCount = synsets.length;
+		this.nouns = nouns;
+		nounCount = nouns.length;
+		this.offsets = offsets;
+		this.ids = ids;
+		addedIds = new int[nounCount][];
+		table = new int[tableSize(nouns.length)];
+		for (int i = 0; i < nouns.length; i++)
+			insert(nouns[i], i);
+	}
+
+	private static int countNouns(String synset) {
+		int count = 1;
+		for (int i = 0; i < synset.length(); i++)
+			if (synset.charAt(i) == ' ')
+				count++;
+		return count;
+	}
+
+	private static int tableSize(int n) {
+		int size = 16;
+		while (size < 2 * n)
+			size <<= 1;
+		return size;
+	}
+
+	private static int hash(String s) {
+		int h = s.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	private void insert(String noun, int number) {
+		int mask = table.length - 1;
+		int slot = hash(noun) & mask;
+		while (table[slot] != 0)
+			slot = (slot + 1) & mask;
+		table[slot] = number + 1;
+	}
+
+	private int find(String noun, String[] names) {
+		int mask = table.length - 1;
+		for (int slot = hash(noun) & mask; table[slot] != 0; slot = (slot + 1) & mask)
+			if (names[table[slot] - 1].equals(noun))
+				return table[slot] - 1;
+		return -1;
+	}
+
+	// appends a synset and returns its id (the previous synset count)
+	public int add(String synset) {
+		if (synsetCount == synsets.length)
+			synsets = Arrays.copyOf(synsets, Math.max(16, 2 * synsetCount));
+		int id = synsetCount;
+		synsets[synsetCount++] = synset;
+
+		int start = 0;
+		while (start <= synset.length()) {
+			int end = synset.indexOf(' ', start);
+			if (end == -1)
+				end = synset.length();
+			String noun = synset.substring(start, end);
+			int number = find(noun);
+			if (number == -1) {
+				if (nounCount == nouns.length) {
+					nouns = Arrays.copyOf(nouns, Math.max(16, 2 * nounCount));
+					addedIds = Arrays.copyOf(addedIds, nouns.length);
+				}
+				if (2 * (nounCount + 1) > table.length)
+					rehash(2 * table.length);
+				number = nounCount++;
+				nouns[number] = noun;
+				insert(noun, number);
+			}
+			int[] added = addedIds[number];
+			added = (added == null) ? (new int[1]) : (Arrays.copyOf(added, added.length + 1));
+			added[added.length - 1] = id;
+			addedIds[number] = added;
+			start = end + 1;
+		}
+		return id;
+	}
+
+	private void rehash(int size) {
+		table = new int[size];
+		for (int i = 0; i < nounCount; i++)
+			insert(nouns[i], i);
+	}
+
+	public int synsetCount() {
+		return synsetCount;
+	}
+
+	public String synset(int id) {
+		return synsets[id];
+	}
+
+	public int nounCount() {
+		return nounCount;
+	}
+
+	public String noun(int number) {
+		return nouns[number];
+	}
+
+	public Iterable<String> nouns() {
+		List<String> list = Arrays.asList(nouns).subList(0, nounCount);
+		return Collections.unmodifiableList(list);
+	}
+
+	// noun number of the given noun, -1 if it is not in the index
+	public int find(String noun) {
+		return find(noun, nouns);
+	}
+
+	// ids of the synsets containing noun number n, in the order they were added
+	public int[] synsetIds(int number) {
+		int from = (number < offsets.length - 1) ? (offsets[number]) : (0);
+		int to = (number < offsets.length - 1) ? (offsets[number + 1]) : (0);
+		int[] added = (addedIds[number] == null) ? (new int[0]) : (addedIds[number]);
+		int[] result = Arrays.copyOfRange(ids, from, to + added.length);
+		System.arraycopy(added, 0, result, to - from, added.length);
+		return result;
+	}
+
+	// the ids of the synsets containing the noun, or null if it is not a noun
+	public Iterable<Integer> synsetsOf(String noun) {
+		int number = find(noun);
+		if (number == -1)
+			return null;
+		if (addedIds[number] != null) {
+			List<Integer> list = new ArrayList<Integer>();
+			for (int id : synsetIds(number))
+				list.add(id);
+			return list;
+		}
+		int from = offsets[number], to = offsets[number + 1];
+		return () -> new Iterator<Integer>() {
+			private int i = from;
+
+			@Override
+			public boolean hasNext() {
+				return i < to;
+			}
+
+			@Override
+			public Integer next() {
+				if (i >= to)
+					throw new NoSuchElementException();
+				return ids[i++];
+			}
+		};
+	}
+}
@@ -1,3 +1,5 @@
+import java.util.stream.IntStream;
+
 import edu.princeton.cs.algs4.In;
 import edu.princeton.cs.algs4.StdOut;
 
@@ -11,17 +13,12 @@ public class Outcast {
 
 	public String outcast(String[] nouns) // given an array of WordNet nouns, return an outcast
 	{
+		int[] sums = distanceSums(nouns);
 		int maxDistance = 0;
 		int maxDistanceIndex = 0;
-		int sum;
 		for (int i = 0; i < nouns.length; i++) {
-			sum = 0;
-			for (int j = 0; j < nouns.length; j++) {
-				if (i != j)
-					sum += wordnet.distance(nouns[i], nouns[j]);
-			}
-			if (sum > maxDistance) {
-				maxDistance = sum;
+			if (sums[i] > maxDistance) {
+				maxDistance = sums[i];
 				maxDistanceIndex = i;
 			}
 		}
@@ -29,6 +26,36 @@ public class Outcast {
 		return nouns[maxDistanceIndex];
 	}
 
+	// matrix[i][j] = distance(nouns[i], nouns[j]). each noun's ancestors are
+	// searched once, then every pair is a merge of two ancestor lists; the lists
+	// and the rows of the (symmetric) matrix are computed in parallel
+	public int[][] distanceMatrix(String[] nouns) {
+		if (nouns == null)
+			throw new IllegalArgumentException();
+		int[][][] ancestors = IntStream.range(0, nouns.length).parallel()
+				.mapToObj(i -> wordnet.ancestorDistances(nouns[i])).toArray(int[][][]::new);
+
+		int[][] matrix = new int[nouns.length][nouns.length];
+		IntStream.range(0, nouns.length).parallel().forEach(i -> {
+			for (int j = i + 1; j < nouns.length; j++) {
+				int distance = AncestorIndex.length(ancestors[i], ancestors[j]);
+				matrix[i][j] = distance;
+				matrix[j][i] = distance;
+			}
+		});
+		return matrix;
+	}
+
+	// sums[i] = sum of the distances from nouns[i] to every other noun
+	public int[] distanceSums(String[] nouns) {
+		int[][] matrix = distanceMatrix(nouns);
+		int[] sums = new int[nouns.length];
+		for (int i = 0; i < nouns.length; i++)
+			for (int j = 0; j < nouns.length; j++)
+				sums[i] += matrix[i][j];
+		return sums;
+	}
+
 	public static void main(String[] args) {
 		WordNet wordnet = new WordNet(args[0], args[1]);
 		Outcast outcast = new Outcast(wordnet);
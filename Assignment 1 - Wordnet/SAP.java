@@ -1,132 +1,601 @@
-import edu.princeton.cs.algs4.BreadthFirstDirectedPaths;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
 import edu.princeton.cs.algs4.Digraph;
 import edu.princeton.cs.algs4.In;
-import edu.princeton.cs.algs4.StdIn;
-import edu.princeton.cs.algs4.StdOut;
 
+// queries are safe for concurrent use on a shared instance: every thread
+// searches with its own workspace and the optional cache locks per segment.
+// the digraph is frozen into compressed sparse rows: the out-edges of internal
+// vertex x are targets[offsets[x]] .. targets[offsets[x + 1] - 1]. edges added
+// later go to a small per-vertex overflow list instead of rebuilding the rows.
 public class SAP {
-	private Digraph graph;
+	private int n;
+	private int[] offsets;
+	private int[] targets;
+	private int[][] added;
+	private int[] indegree;
+	// in-edges in the same layout, built the first time addEdge has cached
+	// results to check; edges added after that go to addedReverse
+	private int[] reverseOffsets, reverseTargets;
+	private int[][] addedReverse;
+	// vertex ids seen by callers <-> ids used inside the rows; the identity
+	// unless the constructor was asked to renumber
+	private int[] toInternal, toExternal;
+	private ThreadLocal<Search> searches;
+	private volatile SAPCache cache;
 
 	// constructor takes a digraph (not necessarily a DAG)
 	public SAP(Digraph G) {
-		graph = new Digraph(G);
+		this(G, false);
 	}
 
-	// length of shortest ancestral path between v and w; -1 if no such path
-	public int length(int v, int w) {
-		BreadthFirstDirectedPaths pathsFromV = new BreadthFirstDirectedPaths(graph, v);
-		BreadthFirstDirectedPaths pathsFromW = new BreadthFirstDirectedPaths(graph, w);
+	// with renumber set, vertices are laid out in BFS order from the roots
+	// (vertices without out-edges) down through their in-edges, so that a
+	// vertex's ancestors sit close together in memory. answers are unaffected
+	public SAP(Digraph G, boolean renumber) {
+		if (G == null)
+			throw new IllegalArgumentException();
+		n = G.V();
+		toInternal = new int[n];
+		toExternal = new int[n];
+		if (renumber)
+			bfsOrder(G);
+		else
+			for (int v = 0; v < n; v++)
+				toInternal[v] = toExternal[v] = v;
 
-		boolean foundPath = false;
+		offsets = new int[n + 1];
+		for (int x = 0; x < n; x++)
+			offsets[x + 1] = offsets[x] + G.outdegree(toExternal[x]);
+		targets = new int[offsets[n]];
+		indegree = new int[n];
+		for (int x = 0; x < n; x++) {
+			int i = offsets[x];
+			for (int w : G.adj(toExternal[x])) {
+				targets[i++] = toInternal[w];
+				indegree[toInternal[w]]++;
+			}
+		}
+		added = new int[n][];
+		searches = ThreadLocal.withInitial(() -> new Search(n));
+	}
 
-		int minLength = Integer.MAX_VALUE;
-		for (int i = 0; i < graph.V(); i++) {
-			if (pathsFromV.hasPathTo(i) && pathsFromW.hasPathTo(i)) {
-				if (pathsFromV.distTo(i) + pathsFromW.distTo(i) < minLength) {
-					minLength = pathsFromV.distTo(i) + pathsFromW.distTo(i);
-					foundPath = true;
-				}
+	// the rows of a digraph given in caller ids (the out-edges of v are
+	// targets[offsets[v]] .. targets[offsets[v + 1] - 1]), laid out so that
+	// internal vertex x is order[x], as order() returned it. used by
+	// WordNet.load() to skip the Digraph and the BFS; the arrays are not kept
+	SAP(int[] offsets, int[] targets, int[] order) {
+		n = order.length;
+		if (offsets.length != n + 1 || offsets[0] != 0 || offsets[n] != targets.length)
+			throw new IllegalArgumentException("bad adjacency offsets");
+		toInternal = new int[n];
+		toExternal = order.clone();
+		Arrays.fill(toInternal, -1);
+		for (int x = 0; x < n; x++) {
+			int v = toExternal[x];
+			if (v < 0 || v >= n || toInternal[v] != -1)
+				throw new IllegalArgumentException("vertex order is not a permutation");
+			toInternal[v] = x;
+		}
+
+		this.offsets = new int[n + 1];
+		for (int x = 0; x < n; x++) {
+			int v = toExternal[x];
+			if (offsets[v] > offsets[v + 1])
+				throw new IllegalArgumentException("bad adjacency offsets");
+			this.offsets[x + 1] = this.offsets[x] + offsets[v + 1] - offsets[v];
+		}
+		this.targets = new int[targets.length];
+		indegree = new int[n];
+		for (int x = 0; x < n; x++) {
+			int i = this.offsets[x];
+			for (int j = offsets[toExternal[x]]; j < offsets[toExternal[x] + 1]; j++) {
+				if (targets[j] < 0 || targets[j] >= n)
+					throw new IllegalArgumentException("bad edge target");
+				this.targets[i++] = toInternal[targets[j]];
+				indegree[toInternal[targets[j]]]++;
 			}
 		}
+		added = new int[n][];
+		searches = ThreadLocal.withInitial(() -> new Search(n));
+	}
 
-		return (foundPath) ? (minLength) : (-1);
+	// the caller id of each internal vertex, for saving the layout
+	int[] order() {
+		return toExternal.clone();
 	}
 
-	// a common ancestor of v and w that participates in a shortest ancestral path;
-	// -1 if no such path
-	public int ancestor(int v, int w) {
-		BreadthFirstDirectedPaths pathsFromV = new BreadthFirstDirectedPaths(graph, v);
-		BreadthFirstDirectedPaths pathsFromW = new BreadthFirstDirectedPaths(graph, w);
-
-		int closestAncestor = -1;
-		for (int i = 0; i < graph.V(); i++) {
-			if (pathsFromV.hasPathTo(i) && pathsFromW.hasPathTo(i)) {
-				if (closestAncestor == -1) {
-					closestAncestor = i;
-				} else if (pathsFromV.distTo(i) + pathsFromW.distTo(i) < pathsFromV.distTo(closestAncestor)
-						+ pathsFromW.distTo(closestAncestor)) {
-					closestAncestor = i;
+	private void bfsOrder(Digraph G) {
+		Digraph reverse = G.reverse();
+		boolean[] marked = new boolean[n];
+		int count = 0;
+		for (int pass = 0; pass < 2; pass++) {
+			// roots first; the second pass picks up vertices only reachable
+			// from cycles
+			for (int v = 0; v < n; v++) {
+				if (marked[v] || (pass == 0 && G.outdegree(v) != 0))
+					continue;
+				marked[v] = true;
+				int head = count;
+				toExternal[count++] = v;
+				while (head < count) {
+					int x = toExternal[head++];
+					for (int child : reverse.adj(x)) {
+						if (!marked[child]) {
+							marked[child] = true;
+							toExternal[count++] = child;
+						}
+					}
 				}
 			}
 		}
+		for (int x = 0; x < n; x++)
+			toInternal[toExternal[x]] = x;
+	}
+
+	// length of shortest ancestral path between v and w; -1 if no such path
+	public int length(int v, int w) {
+		validateVertex(v);
+		validateVertex(w);
+		SAPCache cache = this.cache;
+		if (cache != null)
+			return cachedSearch(cache, new int[] { v }, new int[] { w })[0];
+		Search search = searches.get();
+		search.begin();
+		search.addSourceV(v);
+		search.addSourceW(w);
+		search.run();
+		return search.length;
+	}
 
-		return closestAncestor;
+	// a common ancestor of v and w that participates in a shortest ancestral path;
+	// -1 if no such path
+	public int ancestor(int v, int w) {
+		validateVertex(v);
+		validateVertex(w);
+		SAPCache cache = this.cache;
+		if (cache != null)
+			return cachedSearch(cache, new int[] { v }, new int[] { w })[1];
+		Search search = searches.get();
+		search.begin();
+		search.addSourceV(v);
+		search.addSourceW(w);
+		search.run();
+		return search.ancestor;
 	}
 
 	// length of shortest ancestral path between any vertex in v and any vertex in
 	// w; -1 if no such path
 	public int length(Iterable<Integer> v, Iterable<Integer> w) {
-		if (v == null || w == null)
-			throw new IllegalArgumentException();
-		for (Integer integer : v)
-			if (integer == null)
-				throw new IllegalArgumentException();
-		for (Integer integer : w)
-			if (integer == null)
-				throw new IllegalArgumentException();
-		
-		BreadthFirstDirectedPaths pathsFromV = new BreadthFirstDirectedPaths(graph, v);
-		BreadthFirstDirectedPaths pathsFromW = new BreadthFirstDirectedPaths(graph, w);
-
-		boolean foundPath = false;
-
-		int minLength = Integer.MAX_VALUE;
-		for (int i = 0; i < graph.V(); i++) {
-			//if (pathsFromV.hasPathTo(i) || pathsFromW.hasPathTo(i))
-			//	System.out.println(pathsFromV.hasPathTo(i) + " " + pathsFromW.hasPathTo(i) + " " + i);
-			if (pathsFromV.hasPathTo(i) && pathsFromW.hasPathTo(i)) {
-				if (pathsFromV.distTo(i) + pathsFromW.distTo(i) < minLength) {
-					minLength = pathsFromV.distTo(i) + pathsFromW.distTo(i);
-					foundPath = true;
-				}
+		validateVertices(v);
+		validateVertices(w);
+		SAPCache cache = this.cache;
+		if (cache != null)
+			return cachedSearch(cache, toSortedSet(v), toSortedSet(w))[0];
+		return runSearch(v, w).length;
+	}
+
+	// a common ancestor that participates in shortest ancestral path; -1 if no such
+	// path
+	public int ancestor(Iterable<Integer> v, Iterable<Integer> w) {
+		validateVertices(v);
+		validateVertices(w);
+		SAPCache cache = this.cache;
+		if (cache != null)
+			return cachedSearch(cache, toSortedSet(v), toSortedSet(w))[1];
+		return runSearch(v, w).ancestor;
+	}
+
+	// {length, ancestor} from a single search, for callers that need both; -1s if
+	// there is no ancestral path. the array may be shared with the cache, so
+	// callers must not modify it
+	int[] query(int v, int w) {
+		validateVertex(v);
+		validateVertex(w);
+		SAPCache cache = this.cache;
+		if (cache != null)
+			return cachedSearch(cache, new int[] { v }, new int[] { w });
+		Search search = searches.get();
+		search.begin();
+		search.addSourceV(v);
+		search.addSourceW(w);
+		search.run();
+		return new int[] { search.length, search.ancestor };
+	}
+
+	// query() for sets of vertices
+	int[] query(Iterable<Integer> v, Iterable<Integer> w) {
+		validateVertices(v);
+		validateVertices(w);
+		SAPCache cache = this.cache;
+		if (cache != null)
+			return cachedSearch(cache, toSortedSet(v), toSortedSet(w));
+		Search search = runSearch(v, w);
+		return new int[] { search.length, search.ancestor };
+	}
+
+	// every ancestor of the vertices in v (v included) with its distance, as
+	// {ancestors sorted by id, distances}; the same lists AncestorIndex keeps
+	public int[][] ancestorDistances(Iterable<Integer> v) {
+		validateVertices(v);
+		Search search = searches.get();
+		search.begin();
+		for (int s : v)
+			search.addSourceV(s);
+		return search.collectV();
+	}
+
+	// adds the edge v->w. cached results are dropped only for pairs with a
+	// source that can reach v, the only ones the edge can change; those sources
+	// are found with one search down the in-edges from v. like resize(), it
+	// must not run concurrently with queries
+	public void addEdge(int v, int w) {
+		validateVertex(v);
+		validateVertex(w);
+		int x = toInternal[v], y = toInternal[w];
+		added[x] = append(added[x], y);
+		indegree[y]++;
+		if (addedReverse != null)
+			addedReverse[y] = append(addedReverse[y], x);
+
+		SAPCache cache = this.cache;
+		if (cache != null) {
+			// nothing points to a fresh vertex, so only pairs containing it can change
+			if (indegree[x] == 0) {
+				cache.invalidate(sources -> Arrays.binarySearch(sources, v) >= 0);
+			} else {
+				if (addedReverse == null)
+					buildReverse();
+				Search search = searches.get();
+				search.markDescendants(x);
+				cache.invalidate(search::anyMarked);
 			}
 		}
+	}
+
+	private static int[] append(int[] list, int x) {
+		list = (list == null) ? (new int[1]) : (Arrays.copyOf(list, list.length + 1));
+		list[list.length - 1] = x;
+		return list;
+	}
 
-		return (foundPath) ? (minLength) : (-1);
+	private void buildReverse() {
+		reverseOffsets = new int[n + 1];
+		for (int i = 0; i < offsets[n]; i++)
+			reverseOffsets[targets[i] + 1]++;
+		for (int x = 0; x < n; x++)
+			reverseOffsets[x + 1] += reverseOffsets[x];
+		reverseTargets = new int[offsets[n]];
+		int[] next = Arrays.copyOf(reverseOffsets, n);
+		for (int x = 0; x < n; x++)
+			for (int i = offsets[x]; i < offsets[x + 1]; i++)
+				reverseTargets[next[targets[i]]++] = x;
+		addedReverse = new int[n][];
+		for (int x = 0; x < n; x++)
+			if (added[x] != null)
+				for (int y : added[x])
+					addedReverse[y] = append(addedReverse[y], x);
+	}
 
+	// grows the digraph to V vertices; the new vertices have no edges and keep
+	// their own ids inside the rows
+	public void resize(int V) {
+		if (V < n)
+			throw new IllegalArgumentException();
+		int E = offsets[n];
+		offsets = Arrays.copyOf(offsets, V + 1);
+		Arrays.fill(offsets, n + 1, V + 1, E);
+		added = Arrays.copyOf(added, V);
+		indegree = Arrays.copyOf(indegree, V);
+		if (addedReverse != null) {
+			int reverseE = reverseOffsets[n];
+			reverseOffsets = Arrays.copyOf(reverseOffsets, V + 1);
+			Arrays.fill(reverseOffsets, n + 1, V + 1, reverseE);
+			addedReverse = Arrays.copyOf(addedReverse, V);
+		}
+		toInternal = Arrays.copyOf(toInternal, V);
+		toExternal = Arrays.copyOf(toExternal, V);
+		for (int v = n; v < V; v++)
+			toInternal[v] = toExternal[v] = v;
+		n = V;
+		searches = ThreadLocal.withInitial(() -> new Search(V));
 	}
 
-	// a common ancestor that participates in shortest ancestral path; -1 if no such
-	// path
-	public int ancestor(Iterable<Integer> v, Iterable<Integer> w) {
-		if (v == null || w == null)
+	// a copy of g with V >= g.V() vertices and the same adjacency order
+	static Digraph resized(Digraph g, int V) {
+		Digraph copy = new Digraph(V);
+		int[] targets = new int[g.V()];
+		for (int v = 0; v < g.V(); v++) {
+			int count = 0;
+			for (int w : g.adj(v))
+				targets[count++] = w;
+			// adj() returns the most recently added edge first
+			for (int i = count - 1; i >= 0; i--)
+				copy.addEdge(v, targets[i]);
+		}
+		return copy;
+	}
+
+	// puts a bounded LRU cache holding up to capacity query results in front of
+	// length() and ancestor(); a capacity of 0 removes the cache
+	public void enableCache(int capacity) {
+		if (capacity < 0)
 			throw new IllegalArgumentException();
-		for (Integer integer : v)
-			if (integer == null)
-				throw new IllegalArgumentException();
-		for (Integer integer : w)
+		cache = (capacity == 0) ? (null) : (new SAPCache(capacity));
+	}
+
+	// the cache in use, or null if caching is disabled
+	public SAPCache cache() {
+		return cache;
+	}
+
+	// lengths[i] = length(v[i], w[i]); the pairs are spread over the common
+	// ForkJoin pool, each worker using its own search workspace
+	public int[] lengths(int[] v, int[] w) {
+		validatePairs(v, w);
+		int[] result = new int[v.length];
+		IntStream.range(0, v.length).parallel().forEach(i -> result[i] = length(v[i], w[i]));
+		return result;
+	}
+
+	// ancestors[i] = ancestor(v[i], w[i]), computed in parallel like lengths()
+	public int[] ancestors(int[] v, int[] w) {
+		validatePairs(v, w);
+		int[] result = new int[v.length];
+		IntStream.range(0, v.length).parallel().forEach(i -> result[i] = ancestor(v[i], w[i]));
+		return result;
+	}
+
+	private void validatePairs(int[] v, int[] w) {
+		if (v == null || w == null || v.length != w.length)
+			throw new IllegalArgumentException();
+		for (int i = 0; i < v.length; i++) {
+			validateVertex(v[i]);
+			validateVertex(w[i]);
+		}
+	}
+
+	private Search runSearch(Iterable<Integer> v, Iterable<Integer> w) {
+		Search search = searches.get();
+		search.begin();
+		for (int s : v)
+			search.addSourceV(s);
+		for (int s : w)
+			search.addSourceW(s);
+		search.run();
+		return search;
+	}
+
+	private int[] cachedSearch(SAPCache cache, int[] v, int[] w) {
+		int[] result = cache.get(v, w);
+		if (result == null) {
+			Search search = searches.get();
+			search.begin();
+			for (int s : v)
+				search.addSourceV(s);
+			for (int s : w)
+				search.addSourceW(s);
+			search.run();
+			result = new int[] { search.length, search.ancestor };
+			cache.put(v, w, result);
+		}
+		return result;
+	}
+
+	private int[] toSortedSet(Iterable<Integer> vertices) {
+		int count = 0;
+		for (int s : vertices)
+			count++;
+		int[] result = new int[count];
+		int i = 0;
+		for (int s : vertices)
+			result[i++] = s;
+		Arrays.sort(result);
+
+		int distinct = 0;
+		for (i = 0; i < result.length; i++)
+			if (i == 0 || result[i] != result[i - 1])
+				result[distinct++] = result[i];
+		return (distinct == result.length) ? (result) : (Arrays.copyOf(result, distinct));
+	}
+
+	private void validateVertices(Iterable<Integer> vertices) {
+		if (vertices == null)
+			throw new IllegalArgumentException();
+		for (Integer integer : vertices) {
 			if (integer == null)
 				throw new IllegalArgumentException();
-		
-		BreadthFirstDirectedPaths pathsFromV = new BreadthFirstDirectedPaths(graph, v);
-		BreadthFirstDirectedPaths pathsFromW = new BreadthFirstDirectedPaths(graph, w);
-
-		int closestAncestor = -1;
-		for (int i = 0; i < graph.V(); i++) {
-			if (pathsFromV.hasPathTo(i) && pathsFromW.hasPathTo(i)) {
-				if (closestAncestor == -1) {
-					closestAncestor = i;
-				} else if (pathsFromV.distTo(i) + pathsFromW.distTo(i) < pathsFromV.distTo(closestAncestor)
-						+ pathsFromW.distTo(closestAncestor)) {
-					closestAncestor = i;
+			validateVertex(integer);
+		}
+	}
+
+	private void validateVertex(int v) {
+		if (v < 0 || v >= n)
+			throw new IllegalArgumentException();
+	}
+
+	// per-thread state for the bidirectional search. a vertex counts as visited
+	// by a side only if its stamp equals the current generation, so starting a new
+	// query is O(1) and a query only touches the vertices it reaches.
+	private class Search {
+		private final int[] stampV, stampW;
+		private final int[] distV, distW;
+		private final int[] queueV, queueW;
+		private int generation;
+		private int headV, tailV, headW, tailW;
+
+		// result of the last run(): {length, ancestor}, -1 if there is no ancestral
+		// path; the ancestor is a caller id
+		private int length, ancestor;
+
+		Search(int n) {
+			stampV = new int[n];
+			stampW = new int[n];
+			distV = new int[n];
+			distW = new int[n];
+			queueV = new int[n];
+			queueW = new int[n];
+		}
+
+		void begin() {
+			if (++generation == Integer.MAX_VALUE) {
+				Arrays.fill(stampV, 0);
+				Arrays.fill(stampW, 0);
+				generation = 1;
+			}
+			headV = tailV = headW = tailW = 0;
+			length = Integer.MAX_VALUE;
+			ancestor = -1;
+		}
+
+		// sources and results use the callers' vertex ids, everything else
+		// inside the search uses the internal ones
+		void addSourceV(int s) {
+			reachV(toInternal[s], 0);
+		}
+
+		void addSourceW(int s) {
+			reachW(toInternal[s], 0);
+		}
+
+		// marks internal vertex x and every vertex with a path to it, by a
+		// search down the in-edges; valid until the next begin()
+		void markDescendants(int x) {
+			begin();
+			reachV(x, 0);
+			while (headV < tailV) {
+				int y = queueV[headV++];
+				for (int i = reverseOffsets[y]; i < reverseOffsets[y + 1]; i++)
+					reachV(reverseTargets[i], 0);
+				int[] extra = addedReverse[y];
+				if (extra != null)
+					for (int z : extra)
+						reachV(z, 0);
+			}
+		}
+
+		// is any of the caller ids in sources marked by markDescendants?
+		boolean anyMarked(int[] sources) {
+			for (int s : sources)
+				if (stampV[toInternal[s]] == generation)
+					return true;
+			return false;
+		}
+
+		// runs the v side to completion and returns what it reached
+		int[][] collectV() {
+			while (headV < tailV) {
+				int x = queueV[headV++];
+				expandV(x, distV[x] + 1);
+			}
+
+			// sort by caller id; packing the distance below keeps it attached
+			long[] pairs = new long[tailV];
+			for (int i = 0; i < tailV; i++)
+				pairs[i] = ((long) toExternal[queueV[i]] << 32) | distV[queueV[i]];
+			Arrays.sort(pairs);
+			int[] reached = new int[tailV];
+			int[] dist = new int[tailV];
+			for (int i = 0; i < tailV; i++) {
+				reached[i] = (int) (pairs[i] >>> 32);
+				dist[i] = (int) pairs[i];
+			}
+			return new int[][] { reached, dist };
+		}
+
+		// both sides grow one BFS level at a time and a side stops once its
+		// frontier is at least as deep as the best path found so far, since any
+		// ancestor it could still reach would give a path at least that long.
+		// ties are broken towards the smallest ancestor, as a full scan over
+		// 0..V-1 would.
+		void run() {
+			int depthV = 0, depthW = 0;
+			while (true) {
+				boolean growV = headV < tailV && depthV < length;
+				boolean growW = headW < tailW && depthW < length;
+				if (!growV && !growW)
+					break;
+
+				if (growV) {
+					while (headV < tailV && distV[queueV[headV]] == depthV)
+						expandV(queueV[headV++], depthV + 1);
+					depthV++;
+				}
+				if (growW && depthW < length) {
+					while (headW < tailW && distW[queueW[headW]] == depthW)
+						expandW(queueW[headW++], depthW + 1);
+					depthW++;
 				}
 			}
+
+			if (ancestor == -1)
+				length = -1;
+		}
+
+		private void expandV(int x, int dist) {
+			for (int i = offsets[x]; i < offsets[x + 1]; i++)
+				reachV(targets[i], dist);
+			int[] extra = added[x];
+			if (extra != null)
+				for (int adj : extra)
+					reachV(adj, dist);
+		}
+
+		private void expandW(int x, int dist) {
+			for (int i = offsets[x]; i < offsets[x + 1]; i++)
+				reachW(targets[i], dist);
+			int[] extra = added[x];
+			if (extra != null)
+				for (int adj : extra)
+					reachW(adj, dist);
 		}
 
-		return closestAncestor;
+		private void reachV(int x, int dist) {
+			if (stampV[x] == generation)
+				return;
+			stampV[x] = generation;
+			distV[x] = dist;
+			queueV[tailV++] = x;
+			if (stampW[x] == generation)
+				offer(x, dist + distW[x]);
+		}
+
+		private void reachW(int x, int dist) {
+			if (stampW[x] == generation)
+				return;
+			stampW[x] = generation;
+			distW[x] = dist;
+			queueW[tailW++] = x;
+			if (stampV[x] == generation)
+				offer(x, dist + distV[x]);
+		}
+
+		private void offer(int candidate, int candidateLength) {
+			int external = toExternal[candidate];
+			if (candidateLength < length || (candidateLength == length && external < ancestor)) {
+				length = candidateLength;
+				ancestor = external;
+			}
+		}
 	}
 
-	// do unit testing of this class
-	public static void main(String[] args) {
-		In in = new In("C:\\Users\\zzlawlzz\\Desktop\\digraph25.txt");
+	// batch mode: java SAP digraph.txt [queries.txt]
+	// answers "v w" lines from the file (or stdin) with "length ancestor" lines
+	public static void main(String[] args) throws IOException {
+		In in = new In(args[0]);
 		Digraph G = new Digraph(in);
-		SAP sap = new SAP(G);
-		while (!StdIn.isEmpty()) {
-			int v = StdIn.readInt();
-			int w = StdIn.readInt();
-			int length = sap.length(v, w);
-			int ancestor = sap.ancestor(v, w);
-			StdOut.printf("length = %d, ancestor = %d\n", length, ancestor);
-		}
+		SAP sap = new SAP(G, true);
+		BatchQueries batch = new BatchQueries(line -> {
+			String[] parts = line.trim().split("\\s+");
+			if (parts.length != 2)
+				throw new IllegalArgumentException();
+			int v = Integer.parseInt(parts[0]);
+			int w = Integer.parseInt(parts[1]);
+			int[] result = sap.query(v, w);
+			return result[0] + " " + result[1];
+		}, Runtime.getRuntime().availableProcessors());
+		batch.run((args.length > 1) ? (args[1]) : (null));
 	}
 }
@@ -0,0 +1,213 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+// bounded LRU cache of shortest ancestral path results, keyed on the unordered
+// pair of (sorted, duplicate free) source sets. entries are spread by key hash
+// over independent segments, each an LRU of its own behind its own lock, so
+// concurrent readers only contend when they hit the same segment; a hit also
+// updates the LRU order of its segment. eviction is therefore LRU per segment,
+// not across the whole cache.
+public class SAPCache {
+	// rough per-entry cost with compressed oops: map entry, key object, result
+	// array and the table slot; the two source arrays are added per entry
+	private static final long ENTRY_OVERHEAD = 40 + 24 + 24 + 8;
+	// enough segments that a few dozen threads rarely meet on one lock
+	private static final int MAX_SEGMENTS = 64;
+	// smaller segments would make per-segment LRU evict far from global LRU
+	private static final int MIN_SEGMENT_CAPACITY = 16;
+
+	private final int capacity;
+	private final Segment[] segments;
+
+	public SAPCache(int capacity) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException();
+		this.capacity = capacity;
+		int count = Integer.highestOneBit(Math.max(1, Math.min(MAX_SEGMENTS, capacity / MIN_SEGMENT_CAPACITY)));
+		segments = new Segment[count];
+		for (int i = 0; i < count; i++)
+			segments[i] = new Segment(capacity / count + (i < capacity % count ? 1 : 0));
+	}
+
+	private Segment segment(Key key) {
+		int h = key.hash ^ (key.hash >>> 16);
+		return segments[h & (segments.length - 1)];
+	}
+
+	// {length, ancestor} for the pair, or null if it is not cached
+	public int[] get(int[] a, int[] b) {
+		Key key = new Key(a, b);
+		Segment segment = segment(key);
+		synchronized (segment) {
+			int[] result = segment.map.get(key);
+			if (result == null)
+				segment.misses++;
+			else
+				segment.hits++;
+			return result;
+		}
+	}
+
+	public void put(int[] a, int[] b, int[] result) {
+		Key key = new Key(a, b);
+		Segment segment = segment(key);
+		synchronized (segment) {
+			if (segment.map.put(key, result) == null)
+				segment.memoryBytes += key.memoryBytes();
+		}
+	}
+
+	// removes the entries for which either source set is affected; returns how
+	// many were removed
+	public int invalidate(Predicate<int[]> affected) {
+		int removed = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				Iterator<Key> keys = segment.map.keySet().iterator();
+				while (keys.hasNext()) {
+					Key key = keys.next();
+					if (affected.test(key.first) || affected.test(key.second)) {
+						segment.memoryBytes -= key.memoryBytes();
+						keys.remove();
+						removed++;
+					}
+				}
+			}
+		}
+		return removed;
+	}
+
+	public void clear() {
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				segment.map.clear();
+				segment.memoryBytes = 0;
+			}
+		}
+	}
+
+	public int capacity() {
+		return capacity;
+	}
+
+	// the totals below add up the segments one at a time, so under concurrent
+	// use they are only a close snapshot
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments)
+			synchronized (segment) {
+				size += segment.map.size();
+			}
+		return size;
+	}
+
+	public long hits() {
+		long hits = 0;
+		for (Segment segment : segments)
+			synchronized (segment) {
+				hits += segment.hits;
+			}
+		return hits;
+	}
+
+	public long misses() {
+		long misses = 0;
+		for (Segment segment : segments)
+			synchronized (segment) {
+				misses += segment.misses;
+			}
+		return misses;
+	}
+
+	public long evictions() {
+		long evictions = 0;
+		for (Segment segment : segments)
+			synchronized (segment) {
+				evictions += segment.evictions;
+			}
+		return evictions;
+	}
+
+	public double hitRate() {
+		long hits = hits(), lookups = hits + misses();
+		return (lookups == 0) ? (0.0) : ((double) hits / lookups);
+	}
+
+	// estimated heap used by the cached entries, in bytes
+	public long memoryBytes() {
+		long memoryBytes = 0;
+		for (Segment segment : segments)
+			synchronized (segment) {
+				memoryBytes += segment.memoryBytes;
+			}
+		return memoryBytes;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("size=%d/%d segments=%d hits=%d misses=%d hitRate=%.3f evictions=%d memory=%dB", size(),
+				capacity, segments.length, hits(), misses(), hitRate(), evictions(), memoryBytes());
+	}
+
+	// one LRU slice of the cache; guarded by its own monitor
+	private static class Segment {
+		private final LinkedHashMap<Key, int[]> map;
+		private long hits, misses, evictions;
+		private long memoryBytes;
+
+		Segment(int capacity) {
+			map = new LinkedHashMap<Key, int[]>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Key, int[]> eldest) {
+					if (size() > capacity) {
+						evictions++;
+						memoryBytes -= eldest.getKey().memoryBytes();
+						return true;
+					}
+					return false;
+				}
+			};
+		}
+	}
+
+	// the two sets are stored in a fixed order so (a, b) and (b, a) share an entry
+	private static class Key {
+		private final int[] first, second;
+		private final int hash;
+
+		Key(int[] a, int[] b) {
+			if (Arrays.compare(a, b) <= 0) {
+				first = a;
+				second = b;
+			} else {
+				first = b;
+				second = a;
+			}
+			hash = 31 * Arrays.hashCode(first) + Arrays.hashCode(second);
+		}
+
+		long memoryBytes() {
+			return ENTRY_OVERHEAD + arrayBytes(first) + arrayBytes(second);
+		}
+
+		private static long arrayBytes(int[] array) {
+			return (16 + 4L * array.length + 7) & ~7L;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key other = (Key) o;
+			return hash == other.hash && Arrays.equals(first, other.first) && Arrays.equals(second, other.second);
+		}
+	}
+}
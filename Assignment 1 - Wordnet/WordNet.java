@@ -1,62 +1,360 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
 
 import edu.princeton.cs.algs4.Digraph;
 import edu.princeton.cs.algs4.DirectedCycle;
-import edu.princeton.cs.algs4.In;
 
 public class WordNet {
+	// "WNS1", followed by the snapshot format version
+	private static final int SNAPSHOT_MAGIC = 0x574E5331;
+	private static final int SNAPSHOT_VERSION = 3;
+	// magic, version, file length, V, E
+	private static final int SNAPSHOT_HEADER = 4 + 4 + 8 + 4 + 4;
 
-	private Digraph graph;
-	private HashMap<Integer, String> idToNouns;
-	private HashMap<String, ArrayList<Integer>> nounToId;
+	// null after load() until graph() builds it from the saved rows
+	private volatile Digraph graph;
+	private int[] savedOffsets, savedTargets;
+	private NounIndex nounIndex;
 	private SAP sap;
+	private volatile AncestorIndex index;
+	private volatile Digraph hyponyms;
+	private final ThreadLocal<Nearest> nearests = ThreadLocal.withInitial(Nearest::new);
 
 	// constructor takes the name of the two input files
 	public WordNet(String synsets, String hypernyms) {
 		if (synsets == null || hypernyms == null)
 			throw new IllegalArgumentException();
 		
-		idToNouns = new HashMap<Integer, String>();
-		nounToId = new HashMap<String, ArrayList<Integer>>();
-
-		In in1 = new In(synsets);
-		In in2 = new In(hypernyms);
-
-		while (in1.hasNextLine()) {
-			String line = in1.readLine();
-			String[] parts = line.split(",");
-			int id = Integer.parseInt(parts[0]);
-			idToNouns.put(id, parts[1]);
-
-			String[] nouns = parts[1].split(" ");
-			for (String s : nouns) {
-				if (nounToId.containsKey(s))
-					nounToId.get(s).add(id);
-				else {
-					nounToId.put(s, new ArrayList<Integer>());
-					nounToId.get(s).add(id);
-				}
-			}
-		}
+		String[] synsetStrings = WordNetParser.readSynsets(synsets);
+		int[] edges = WordNetParser.readHypernyms(hypernyms);
 
-		graph = new Digraph(idToNouns.size());
+		nounIndex = new NounIndex(synsetStrings);
 
-		while (in2.hasNextLine()) {
-			String line = in2.readLine();
-			String[] parts = line.split(",");
-			for (int i = 1; i < parts.length; i++) {
-				graph.addEdge(Integer.parseInt(parts[0]), Integer.parseInt(parts[i]));
-			}
-		}
+		graph = new Digraph(synsetStrings.length);
+		for (int i = 0; i < edges.length; i += 2)
+			graph.addEdge(edges[i], edges[i + 1]);
 		
 		if (!isRootedDAG(graph))
 			throw new IllegalArgumentException(); 
 		
-		sap = new SAP(graph);
+		sap = new SAP(graph, true);
 	}
 	
+	// used by load(), which fills in the fields itself
+	private WordNet() {
+	}
+
+	// writes the parsed and validated WordNet to a binary snapshot that load()
+	// reads back without re-parsing the text files or re-checking that the graph
+	// is a rooted DAG. all values are big-endian: magic, version, the length of
+	// the whole file as a long (so a truncated copy is caught), V, E, CSR
+	// adjacency (V + 1 offsets, E targets), SAP's vertex order (V synset ids),
+	// V length-prefixed UTF-8 synsets, then the noun count and per noun its
+	// UTF-8 bytes, synset count and synset ids
+	public void save(String filename) {
+		if (filename == null)
+			throw new IllegalArgumentException();
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(filename), 1 << 16))) {
+			out.writeInt(SNAPSHOT_MAGIC);
+			out.writeInt(SNAPSHOT_VERSION);
+			out.writeLong(snapshotLength());
+			// the digraph may have spare vertices left by addSynset()'s growth
+			int V = nounIndex.synsetCount();
+			Digraph graph = graph();
+			out.writeInt(V);
+			out.writeInt(graph.E());
+
+			int offset = 0;
+			out.writeInt(offset);
+			for (int v = 0; v < V; v++) {
+				offset += graph.outdegree(v);
+				out.writeInt(offset);
+			}
+			for (int v = 0; v < V; v++)
+				for (int adj : graph.adj(v))
+					out.writeInt(adj);
+			// synsets added since the SAP was built keep their ids, so the first
+			// V entries are a permutation of 0 .. V - 1
+			int[] order = sap.order();
+			for (int x = 0; x < V; x++)
+				out.writeInt(order[x]);
+
+			for (int v = 0; v < V; v++)
+				writeString(out, nounIndex.synset(v));
+
+			out.writeInt(nounIndex.nounCount());
+			for (int i = 0; i < nounIndex.nounCount(); i++) {
+				writeString(out, nounIndex.noun(i));
+				int[] ids = nounIndex.synsetIds(i);
+				out.writeInt(ids.length);
+				for (int id : ids)
+					out.writeInt(id);
+			}
+		} catch (IOException e) {
+			throw new IllegalArgumentException("could not write " + filename, e);
+		}
+	}
+
+	// bytes save() writes for the current state
+	private long snapshotLength() {
+		int V = nounIndex.synsetCount();
+		long length = SNAPSHOT_HEADER + 4L * (V + 1) + 4L * graph().E() + 4L * V + 4;
+		for (int v = 0; v < V; v++)
+			length += 4 + nounIndex.synset(v).getBytes(StandardCharsets.UTF_8).length;
+		for (int i = 0; i < nounIndex.nounCount(); i++)
+			length += 4 + nounIndex.noun(i).getBytes(StandardCharsets.UTF_8).length + 4
+					+ 4L * nounIndex.synsetIds(i).length;
+		return length;
+	}
+
+	// a WordNet read from a snapshot written by save(). the file is mapped to
+	// read it without stream copies, but the noun index and SAP are then built
+	// on the heap, so nothing stays shared with the file. the SAP takes the
+	// saved rows and vertex order as they are; the Digraph is only rebuilt
+	// when something needs it, such as addHypernym() or nearest(). files that are
+	// truncated, of another format or otherwise inconsistent are rejected with an
+	// IllegalArgumentException
+	public static WordNet load(String filename) {
+		if (filename == null)
+			throw new IllegalArgumentException();
+		MappedByteBuffer buffer;
+		long size;
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			size = channel.size();
+			if (size < SNAPSHOT_HEADER || size > Integer.MAX_VALUE)
+				throw new IllegalArgumentException(filename + " is not a valid WordNet snapshot");
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		} catch (IOException e) {
+			throw new IllegalArgumentException("could not read " + filename, e);
+		}
+
+		if (buffer.getInt() != SNAPSHOT_MAGIC || buffer.getInt() != SNAPSHOT_VERSION || buffer.getLong() != size)
+			throw new IllegalArgumentException(filename + " is not a valid WordNet snapshot");
+		try {
+			return readSnapshot(buffer);
+		} catch (BufferUnderflowException | IllegalArgumentException e) {
+			throw new IllegalArgumentException(filename + " is a corrupt WordNet snapshot", e);
+		}
+	}
+
+	// throws BufferUnderflowException or IllegalArgumentException on bad input
+	private static WordNet readSnapshot(ByteBuffer buffer) {
+		WordNet wordnet = new WordNet();
+		int V = buffer.getInt();
+		int E = buffer.getInt();
+		if (V <= 0 || E < 0 || 4L * (V + 1) + 4L * E + 4L * V > buffer.remaining())
+			throw new IllegalArgumentException("bad section lengths");
+		int[] offsets = new int[V + 1];
+		buffer.asIntBuffer().get(offsets);
+		buffer.position(buffer.position() + 4 * (V + 1));
+		int[] targets = new int[E];
+		buffer.asIntBuffer().get(targets);
+		buffer.position(buffer.position() + 4 * E);
+		int[] order = new int[V];
+		buffer.asIntBuffer().get(order);
+		buffer.position(buffer.position() + 4 * V);
+		// checks the rows and the order
+		wordnet.sap = new SAP(offsets, targets, order);
+		wordnet.savedOffsets = offsets;
+		wordnet.savedTargets = targets;
+
+		String[] synsets = new String[V];
+		for (int v = 0; v < V; v++)
+			synsets[v] = readString(buffer);
+
+		int nounCount = buffer.getInt();
+		if (nounCount < 0 || nounCount > buffer.remaining())
+			throw new IllegalArgumentException("bad noun count");
+		String[] nouns = new String[nounCount];
+		int[] nounOffsets = new int[nounCount + 1];
+		int[] nounIds = new int[16];
+		for (int i = 0; i < nounCount; i++) {
+			nouns[i] = readString(buffer);
+			int count = buffer.getInt();
+			if (count <= 0 || 4L * count > buffer.remaining())
+				throw new IllegalArgumentException("bad synset count");
+			nounOffsets[i + 1] = nounOffsets[i] + count;
+			if (nounOffsets[i + 1] > nounIds.length)
+				nounIds = Arrays.copyOf(nounIds, Math.max(nounOffsets[i + 1], 2 * nounIds.length));
+			for (int j = nounOffsets[i]; j < nounOffsets[i + 1]; j++) {
+				nounIds[j] = buffer.getInt();
+				if (nounIds[j] < 0 || nounIds[j] >= V)
+					throw new IllegalArgumentException("bad synset id");
+			}
+		}
+		if (buffer.hasRemaining())
+			throw new IllegalArgumentException("trailing bytes");
+		wordnet.nounIndex = new NounIndex(synsets, nouns, nounOffsets,
+				Arrays.copyOf(nounIds, nounOffsets[nounCount]));
+		return wordnet;
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0 || length > buffer.remaining())
+			throw new IllegalArgumentException("bad string length");
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	// adds a synset whose hypernyms are the given existing synsets and returns its
+	// id, the previous number of synsets. it needs at least one hypernym, since
+	// without one it would be a second root; it cannot close a cycle as nothing
+	// points to it yet. derived state only gains the new synset. mutators must
+	// not run concurrently with queries
+	public int addSynset(String synset, int... hypernyms) {
+		if (synset == null || synset.isEmpty() || hypernyms == null || hypernyms.length == 0)
+			throw new IllegalArgumentException();
+		for (int h : hypernyms)
+			validateSynset(h);
+
+		int id = nounIndex.synsetCount();
+		ensureCapacity(id + 1);
+		nounIndex.add(synset);
+		for (int h : hypernyms)
+			addEdge(id, h);
+
+		AncestorIndex index = this.index;
+		if (index != null)
+			index.relabel(graph(), new int[] { id });
+		return id;
+	}
+
+	// makes hypernym a hypernym of synset. only the ancestors of hypernym are
+	// searched to reject an edge that would close a cycle; that check also
+	// rejects giving the root a hypernym, the only way to lose the single root.
+	// cached results and index labels are only dropped for synset's descendants
+	public void addHypernym(int synset, int hypernym) {
+		validateSynset(synset);
+		validateSynset(hypernym);
+		if (reaches(hypernym, synset))
+			throw new IllegalArgumentException("edge " + synset + "->" + hypernym + " would close a cycle");
+
+		addEdge(synset, hypernym);
+
+		AncestorIndex index = this.index;
+		if (index != null)
+			index.relabel(graph(), descendantsParentsFirst(synset));
+	}
+
+	private void validateSynset(int id) {
+		if (id < 0 || id >= nounIndex.synsetCount())
+			throw new IllegalArgumentException();
+	}
+
+	// grows the digraphs geometrically; the spare vertices stay isolated
+	private void ensureCapacity(int V) {
+		Digraph graph = graph();
+		if (V <= graph.V())
+			return;
+		int capacity = Math.max(V, 2 * graph.V());
+		this.graph = SAP.resized(graph, capacity);
+		sap.resize(capacity);
+		if (hyponyms != null)
+			hyponyms = SAP.resized(hyponyms, capacity);
+	}
+
+	private void addEdge(int synset, int hypernym) {
+		graph().addEdge(synset, hypernym);
+		sap.addEdge(synset, hypernym);
+		if (hyponyms != null)
+			hyponyms.addEdge(hypernym, synset);
+	}
+
+	// is target an ancestor of (or equal to) source?
+	private boolean reaches(int source, int target) {
+		int[][] ancestors = sap.ancestorDistances(Collections.singletonList(source));
+		return Arrays.binarySearch(ancestors[0], target) >= 0;
+	}
+
+	// v and every synset below it, each listed after all of its hypernyms that
+	// are in the list
+	private int[] descendantsParentsFirst(int v) {
+		Digraph graph = graph();
+		Digraph down = hyponyms();
+		boolean[] inside = new boolean[graph.V()];
+		int[] found = new int[graph.V()];
+		int count = 0;
+		inside[v] = true;
+		found[count++] = v;
+		for (int i = 0; i < count; i++) {
+			for (int child : down.adj(found[i])) {
+				if (!inside[child]) {
+					inside[child] = true;
+					found[count++] = child;
+				}
+			}
+		}
+
+		// count each vertex's hypernyms inside the set, then peel them off
+		int[] remaining = new int[graph.V()];
+		for (int i = 0; i < count; i++)
+			for (int parent : graph.adj(found[i]))
+				if (inside[parent])
+					remaining[found[i]]++;
+		int[] order = new int[count];
+		int head = 0, tail = 0;
+		order[tail++] = v;
+		while (head < tail) {
+			int x = order[head++];
+			for (int child : down.adj(x))
+				if (--remaining[child] == 0)
+					order[tail++] = child;
+		}
+		return order;
+	}
+
+	private Digraph hyponyms() {
+		Digraph down = hyponyms;
+		if (down == null)
+			hyponyms = down = graph().reverse();
+		return down;
+	}
+
+	private Digraph graph() {
+		Digraph g = graph;
+		return (g != null) ? (g) : (rebuildGraph());
+	}
+
+	// Digraph.adj() lists the most recently added edge first, so the saved
+	// edges are added back in reverse to keep their order
+	private synchronized Digraph rebuildGraph() {
+		if (graph == null) {
+			Digraph g = new Digraph(savedOffsets.length - 1);
+			for (int v = 0; v < g.V(); v++)
+				for (int i = savedOffsets[v + 1] - 1; i >= savedOffsets[v]; i--)
+					g.addEdge(v, savedTargets[i]);
+			graph = g;
+			savedOffsets = savedTargets = null;
+		}
+		return graph;
+	}
+
 	private boolean isRootedDAG(Digraph g)
 	{
 		DirectedCycle dc = new DirectedCycle(g);
@@ -84,39 +382,213 @@ public class WordNet {
 
 	// returns all WordNet nouns
 	public Iterable<String> nouns() {
-		return nounToId.keySet();
+		return nounIndex.nouns();
 	}
 
 	// is the word a WordNet noun?
 	public boolean isNoun(String word) {
 		if (word == null)
 			throw new IllegalArgumentException(); 
-		return nounToId.containsKey(word);
+		return nounIndex.find(word) != -1;
 	}
 
 	// distance between nounA and nounB (defined below)
 	public int distance(String nounA, String nounB) {
-		if (nounA == null || nounB == null)
-			throw new IllegalArgumentException();
-		return sap.length(nounToId.get(nounA), nounToId.get(nounB));
+		return query(nounA, nounB)[0];
 	}
 
 	// a synset (second field of synsets.txt) that is the common ancestor of nounA
 	// and nounB
 	// in a shortest ancestral path (defined below)
 	public String sap(String nounA, String nounB) {
+		return nounIndex.synset(query(nounA, nounB)[1]);
+	}
+
+	// {distance, ancestor synset id} of nounA and nounB from a single search, with
+	// each noun looked up once; not to be modified, it may be a cached result
+	private int[] query(String nounA, String nounB) {
 		if (nounA == null || nounB == null)
 			throw new IllegalArgumentException();
-		return idToNouns.get(sap.ancestor(nounToId.get(nounA), nounToId.get(nounB)));
+		Iterable<Integer> a = nounIndex.synsetsOf(nounA), b = nounIndex.synsetsOf(nounB);
+		AncestorIndex index = this.index;
+		if (index != null)
+			return index.query(a, b);
+		return sap.query(a, b);
+	}
+
+	// the k nouns closest to noun by distance(), nearest first, not counting noun
+	// itself; fewer if the WordNet has fewer nouns. the search walks up through
+	// hypernyms and turns down into hyponyms one distance level at a time, so
+	// it stops as soon as k nouns have been seen and never visits farther ones
+	public List<NounDistance> nearest(String noun, int k) {
+		if (noun == null || k < 0 || !isNoun(noun))
+			throw new IllegalArgumentException();
+		Digraph graph = graph();
+		Digraph down = hyponyms();
+
+		List<NounDistance> result = new ArrayList<NounDistance>(k);
+		Set<String> seen = new HashSet<String>();
+		seen.add(noun);
+
+		Nearest workspace = nearests.get();
+		workspace.begin(graph.V());
+		int generation = workspace.generation;
+		int[] upStamp = workspace.upStamp, downStamp = workspace.downStamp;
+		int[] up = workspace.up, nextUp = workspace.nextUp;
+		int[] level = workspace.level, nextDown = workspace.nextDown;
+		int upSize = 0, nextDownSize = 0;
+		for (int s : nounIndex.synsetsOf(noun)) {
+			if (upStamp[s] != generation) {
+				upStamp[s] = generation;
+				up[upSize++] = s;
+			}
+		}
+
+		for (int distance = 0; result.size() < k && (upSize > 0 || nextDownSize > 0); distance++) {
+			// synsets at this distance: hyponyms reached on the previous level plus
+			// the hypernyms reached at this depth, where the path turns downwards
+			int levelSize = 0;
+			for (int i = 0; i < nextDownSize; i++)
+				level[levelSize++] = nextDown[i];
+			for (int i = 0; i < upSize; i++) {
+				if (downStamp[up[i]] != generation) {
+					downStamp[up[i]] = generation;
+					level[levelSize++] = up[i];
+				}
+			}
+
+			for (int i = 0; i < levelSize && result.size() < k; i++) {
+				String synset = nounIndex.synset(level[i]);
+				int start = 0;
+				while (start <= synset.length() && result.size() < k) {
+					int end = synset.indexOf(' ', start);
+					if (end == -1)
+						end = synset.length();
+					String other = synset.substring(start, end);
+					if (seen.add(other))
+						result.add(new NounDistance(other, distance));
+					start = end + 1;
+				}
+			}
+			if (result.size() >= k)
+				break;
+
+			int nextUpSize = 0;
+			for (int i = 0; i < upSize; i++) {
+				for (int adj : graph.adj(up[i])) {
+					if (upStamp[adj] != generation) {
+						upStamp[adj] = generation;
+						nextUp[nextUpSize++] = adj;
+					}
+				}
+			}
+			int[] swap = up;
+			up = nextUp;
+			nextUp = swap;
+			upSize = nextUpSize;
+
+			nextDownSize = 0;
+			for (int i = 0; i < levelSize; i++) {
+				for (int adj : down.adj(level[i])) {
+					if (downStamp[adj] != generation) {
+						downStamp[adj] = generation;
+						nextDown[nextDownSize++] = adj;
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	// per-thread frontiers of nearest(). like SAP's Search, a synset counts as
+	// marked only if its stamp equals the current generation, so a query starts
+	// in O(1) and touches only the synsets it reaches; the arrays grow with V
+	private static class Nearest {
+		private int[] upStamp = new int[0], downStamp = new int[0];
+		private int[] up, nextUp, level, nextDown;
+		private int generation;
+
+		void begin(int n) {
+			if (upStamp.length < n) {
+				int capacity = Math.max(n, 2 * upStamp.length);
+				upStamp = new int[capacity];
+				downStamp = new int[capacity];
+				up = new int[capacity];
+				nextUp = new int[capacity];
+				level = new int[capacity];
+				nextDown = new int[capacity];
+				generation = 0;
+			}
+			if (++generation == Integer.MAX_VALUE) {
+				Arrays.fill(upStamp, 0);
+				Arrays.fill(downStamp, 0);
+				generation = 1;
+			}
+		}
+	}
+
+	// all ancestors of the noun's synsets with their distances, as {ancestor ids
+	// sorted, distances}; AncestorIndex.length() of two such lists is distance()
+	public int[][] ancestorDistances(String noun) {
+		if (noun == null)
+			throw new IllegalArgumentException();
+		AncestorIndex index = this.index;
+		if (index != null)
+			return index.ancestorDistances(nounIndex.synsetsOf(noun));
+		return sap.ancestorDistances(nounIndex.synsetsOf(noun));
+	}
+
+	// distances[i] = distance(nounsA[i], nounsB[i]), computed in parallel on the
+	// common ForkJoin pool; safe to call concurrently on a shared WordNet
+	public int[] distances(String[] nounsA, String[] nounsB) {
+		if (nounsA == null || nounsB == null || nounsA.length != nounsB.length)
+			throw new IllegalArgumentException();
+		for (int i = 0; i < nounsA.length; i++)
+			if (nounsA[i] == null || nounsB[i] == null)
+				throw new IllegalArgumentException();
+
+		int[] result = new int[nounsA.length];
+		IntStream.range(0, nounsA.length).parallel().forEach(i -> result[i] = distance(nounsA[i], nounsB[i]));
+		return result;
+	}
+
+	// builds the ancestor label index; afterwards distance() and sap() merge two
+	// label lists instead of searching the graph. returns the index for its
+	// build time, memory and query latency figures
+	public synchronized AncestorIndex buildIndex() {
+		if (index == null)
+			index = new AncestorIndex(graph());
+		return index;
+	}
+
+	// the ancestor label index, or null if buildIndex() has not been called
+	public AncestorIndex index() {
+		return index;
+	}
+
+	// caches up to capacity distance/sap results, keyed on the unordered noun pair's
+	// synsets; a capacity of 0 disables caching
+	public void enableCache(int capacity) {
+		sap.enableCache(capacity);
+	}
+
+	// hit, miss, eviction and memory statistics of the cache; null if disabled
+	public SAPCache cache() {
+		return sap.cache();
 	}
 
-	// do unit testing of this class
-	public static void main(String[] args) {
-		WordNet deneme = new WordNet("C:\\Users\\zzlawlzz\\Desktop\\synsets.txt",
-				"C:\\Users\\zzlawlzz\\Desktop\\hypernyms.txt");
-		System.out.println(deneme.sap("arm", "leg"));
-		System.out.println(deneme.distance("arm", "eyes"));
-		System.out.println(deneme.distance("eyes", "mouth"));
+	// batch mode: java WordNet synsets.txt hypernyms.txt [queries.txt]
+	// answers "nounA nounB" lines from the file (or stdin) with "distance sap" lines
+	public static void main(String[] args) throws IOException {
+		WordNet wordnet = new WordNet(args[0], args[1]);
+		BatchQueries batch = new BatchQueries(line -> {
+			String[] parts = line.trim().split("\\s+");
+			if (parts.length != 2)
+				throw new IllegalArgumentException();
+			int[] result = wordnet.query(parts[0], parts[1]);
+			return result[0] + " " + wordnet.nounIndex.synset(result[1]);
+		}, Runtime.getRuntime().availableProcessors());
+		batch.run((args.length > 2) ? (args[2]) : (null));
 	}
 
 }
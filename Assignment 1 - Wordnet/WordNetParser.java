@@ -0,0 +1,174 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+// reads synsets and hypernyms files straight from memory-mapped bytes. a file is
+// cut into chunks at line boundaries and the chunks are parsed in parallel;
+// integers are parsed in place and the synset field is the only string built.
+public class WordNetParser {
+	private static final int MIN_CHUNK_BYTES = 1 << 16;
+
+	// synset strings (second field of each line) indexed by synset id; the ids
+	// must be exactly 0..n-1
+	public static String[] readSynsets(String filename) {
+		MappedByteBuffer buffer = map(filename);
+		int[] bounds = chunkBounds(buffer);
+		SynsetChunk[] chunks = IntStream.range(0, bounds.length - 1).parallel()
+				.mapToObj(i -> parseSynsets(buffer, bounds[i], bounds[i + 1])).toArray(SynsetChunk[]::new);
+
+		int count = 0;
+		for (SynsetChunk chunk : chunks)
+			count += chunk.size;
+		String[] synsets = new String[count];
+		for (SynsetChunk chunk : chunks) {
+			for (int i = 0; i < chunk.size; i++) {
+				int id = chunk.ids[i];
+				if (id < 0 || id >= count || synsets[id] != null)
+					throw new IllegalArgumentException("synset ids in " + filename + " are not 0.." + (count - 1));
+				synsets[id] = chunk.synsets[i];
+			}
+		}
+		return synsets;
+	}
+
+	// hypernym edges as consecutive (synset, hypernym) pairs, in file order
+	public static int[] readHypernyms(String filename) {
+		MappedByteBuffer buffer = map(filename);
+		int[] bounds = chunkBounds(buffer);
+		int[][] chunks = IntStream.range(0, bounds.length - 1).parallel()
+				.mapToObj(i -> parseHypernyms(buffer, bounds[i], bounds[i + 1])).toArray(int[][]::new);
+
+		int length = 0;
+		for (int[] chunk : chunks)
+			length += chunk.length;
+		int[] edges = new int[length];
+		int offset = 0;
+		for (int[] chunk : chunks) {
+			System.arraycopy(chunk, 0, edges, offset, chunk.length);
+			offset += chunk.length;
+		}
+		return edges;
+	}
+
+	private static MappedByteBuffer map(String filename) {
+		if (filename == null)
+			throw new IllegalArgumentException();
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} catch (IOException e) {
+			throw new IllegalArgumentException("could not read " + filename, e);
+		}
+	}
+
+	// start offsets of the chunks plus the file size; every chunk but the first
+	// starts right after a newline
+	private static int[] chunkBounds(MappedByteBuffer buffer) {
+		int size = buffer.limit();
+		int chunks = Math.max(1, Math.min(4 * Runtime.getRuntime().availableProcessors(), size / MIN_CHUNK_BYTES));
+		int[] bounds = new int[chunks + 1];
+		int count = 1;
+		for (int i = 1; i < chunks; i++) {
+			int p = Math.max((int) ((long) size * i / chunks), bounds[count - 1]);
+			while (p < size && buffer.get(p - 1) != '\n')
+				p++;
+			if (p > bounds[count - 1] && p < size)
+				bounds[count++] = p;
+		}
+		bounds[count++] = size;
+		return Arrays.copyOf(bounds, count);
+	}
+
+	private static SynsetChunk parseSynsets(MappedByteBuffer buffer, int start, int end) {
+		SynsetChunk chunk = new SynsetChunk();
+		byte[] scratch = new byte[256];
+		int p = start;
+		while (p < end) {
+			int lineEnd = p;
+			while (lineEnd < end && buffer.get(lineEnd) != '\n')
+				lineEnd++;
+			int next = lineEnd + 1;
+			if (lineEnd > p && buffer.get(lineEnd - 1) == '\r')
+				lineEnd--;
+			if (lineEnd == p) {
+				p = next;
+				continue;
+			}
+
+			int id = 0;
+			while (p < lineEnd && buffer.get(p) != ',')
+				id = 10 * id + digit(buffer.get(p++));
+			p++;
+			int fieldEnd = p;
+			while (fieldEnd < lineEnd && buffer.get(fieldEnd) != ',')
+				fieldEnd++;
+			int length = fieldEnd - p;
+			if (length > scratch.length)
+				scratch = new byte[Math.max(length, 2 * scratch.length)];
+			for (int i = 0; i < length; i++)
+				scratch[i] = buffer.get(p + i);
+			chunk.add(id, new String(scratch, 0, length, StandardCharsets.UTF_8));
+			p = next;
+		}
+		return chunk;
+	}
+
+	private static int[] parseHypernyms(MappedByteBuffer buffer, int start, int end) {
+		int[] edges = new int[64];
+		int size = 0;
+		int p = start;
+		while (p < end) {
+			int from = 0;
+			boolean hasDigits = false;
+			byte b = 0;
+			while (p < end && (b = buffer.get(p)) != ',' && b != '\n' && b != '\r') {
+				from = 10 * from + digit(b);
+				hasDigits = true;
+				p++;
+			}
+			while (p < end && buffer.get(p) == ',') {
+				p++;
+				int to = 0;
+				while (p < end && (b = buffer.get(p)) != ',' && b != '\n' && b != '\r') {
+					to = 10 * to + digit(b);
+					p++;
+				}
+				if (!hasDigits)
+					throw new IllegalArgumentException();
+				if (size + 2 > edges.length)
+					edges = Arrays.copyOf(edges, 2 * edges.length);
+				edges[size++] = from;
+				edges[size++] = to;
+			}
+			while (p < end && buffer.get(p) != '\n')
+				p++;
+			p++;
+		}
+		return Arrays.copyOf(edges, size);
+	}
+
+	private static int digit(byte b) {
+		if (b < '0' || b > '9')
+			throw new IllegalArgumentException("unexpected character '" + (char) b + "'");
+		return b - '0';
+	}
+
+	private static class SynsetChunk {
+		private int[] ids = new int[64];
+		private String[] synsets = new String[64];
+		private int size;
+
+		void add(int id, String synset) {
+			if (size == ids.length) {
+				ids = Arrays.copyOf(ids, 2 * size);
+				synsets = Arrays.copyOf(synsets, 2 * size);
+			}
+			ids[size] = id;
+			synsets[size++] = synset;
+		}
+	}
+}
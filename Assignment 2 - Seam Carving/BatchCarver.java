@@ -0,0 +1,156 @@
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.princeton.cs.algs4.Picture;
+
+// resizes many pictures to their target sizes on a fixed pool of workers. the
+// pool lives as long as the carver, and each worker thread keeps one
+// SeamScratch for every picture it carves in every call, so once the buffers
+// have grown to the largest picture seen, carving allocates little more than
+// the seams and the result. close() stops the workers. after each run the
+// throughput and the bytes allocated per picture, as counted by the JVM for
+// the worker threads, are available and printed to stderr by main
+public class BatchCarver implements AutoCloseable {
+	private final boolean approximate;
+	private final ExecutorService pool;
+	private final ThreadLocal<SeamScratch> scratch = ThreadLocal.withInitial(SeamScratch::new);
+
+	private double picturesPerSecond;
+	private long bytesPerPicture;
+
+	// approximate selects the one-pass seam batches of removeVerticalSeams
+	public BatchCarver(int threads, boolean approximate) {
+		if (threads <= 0)
+			throw new IllegalArgumentException();
+		this.approximate = approximate;
+		// daemon workers, so a carver that is never closed does not keep the JVM
+		// alive
+		pool = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "BatchCarver");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	// carves pictures[i] down to widths[i] x heights[i]; the results are in the
+	// same order
+	public Picture[] resize(Picture[] pictures, int[] widths, int[] heights) throws InterruptedException {
+		if (pictures == null || widths == null || heights == null || widths.length != pictures.length
+				|| heights.length != pictures.length)
+			throw new IllegalArgumentException();
+		for (int i = 0; i < pictures.length; i++) {
+			if (pictures[i] == null || widths[i] < 1 || widths[i] > pictures[i].width() || heights[i] < 1
+					|| heights[i] > pictures[i].height())
+				throw new IllegalArgumentException("bad target for picture " + i);
+		}
+
+		if (pool.isShutdown())
+			throw new IllegalStateException("closed");
+		List<Future<Result>> pending = new ArrayList<Future<Result>>();
+		Picture[] results = new Picture[pictures.length];
+		long allocated = 0;
+		long start = System.nanoTime();
+		try {
+			for (int i = 0; i < pictures.length; i++) {
+				Picture picture = pictures[i];
+				int width = widths[i], height = heights[i];
+				pending.add(pool.submit(() -> carve(picture, width, height)));
+			}
+			for (int i = 0; i < pictures.length; i++) {
+				Result result = pending.get(i).get();
+				results[i] = result.picture;
+				allocated += result.allocated;
+			}
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			// after a failure or an interrupt, drop the pictures still queued
+			for (Future<Result> future : pending)
+				future.cancel(true);
+		}
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		picturesPerSecond = pictures.length / seconds;
+		bytesPerPicture = pictures.length == 0 ? 0 : allocated / pictures.length;
+		return results;
+	}
+
+	private Result carve(Picture picture, int width, int height) {
+		long before = allocatedBytes();
+		SeamCarver sc = new SeamCarver(picture, false, scratch.get());
+		sc.removeVerticalSeams(picture.width() - width, approximate);
+		sc.removeHorizontalSeams(picture.height() - height, approximate);
+		Picture result = sc.picture();
+		return new Result(result, allocatedBytes() - before);
+	}
+
+	// bytes allocated so far by the calling thread, or 0 where the JVM does not
+	// count them
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean))
+			return 0;
+		long bytes = ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		return Math.max(0, bytes);
+	}
+
+	// stops the workers once the running call, if any, is done
+	@Override
+	public void close() {
+		pool.shutdown();
+	}
+
+	// pictures per second over the last run
+	public double picturesPerSecond() {
+		return picturesPerSecond;
+	}
+
+	// average bytes allocated per picture over the last run
+	public long bytesPerPicture() {
+		return bytesPerPicture;
+	}
+
+	private static class Result {
+		private final Picture picture;
+		private final long allocated;
+
+		Result(Picture picture, long allocated) {
+			this.picture = picture;
+			this.allocated = allocated;
+		}
+	}
+
+	// java BatchCarver threads percent image...
+	// shrinks every image to the given percentage of its width and height and
+	// saves it next to the original as carved-<name>
+	public static void main(String[] args) throws InterruptedException {
+		int threads = Integer.parseInt(args[0]);
+		int percent = Integer.parseInt(args[1]);
+		int n = args.length - 2;
+		Picture[] pictures = new Picture[n];
+		int[] widths = new int[n], heights = new int[n];
+		for (int i = 0; i < n; i++) {
+			pictures[i] = new Picture(args[i + 2]);
+			widths[i] = Math.max(1, pictures[i].width() * percent / 100);
+			heights[i] = Math.max(1, pictures[i].height() * percent / 100);
+		}
+
+		try (BatchCarver carver = new BatchCarver(threads, false)) {
+			Picture[] results = carver.resize(pictures, widths, heights);
+			for (int i = 0; i < n; i++) {
+				File file = new File(args[i + 2]);
+				results[i].save(new File(file.getAbsoluteFile().getParentFile(), "carved-" + file.getName()).getPath());
+			}
+			System.err.printf("%d pictures, %.1f pictures/s, %.1f KB allocated per picture%n", n,
+					carver.picturesPerSecond(), carver.bytesPerPicture() / 1024.0);
+		}
+	}
+}
@@ -0,0 +1,80 @@
+import java.util.Random;
+
+// dual-gradient energies for a run of interior pixels of one line, in bulk.
+// pixels are packed rgb in a flat buffer; the neighbours of pixels[k] along
+// the line are at k - 1 and k + 1, and across it at k - stride and k + stride.
+// this is the scalar version; get() returns VectorEnergyKernel (compiled
+// separately from vector/) instead when it is on the class path and the
+// jdk.incubator.vector module is available, with bit-identical results
+public class EnergyKernel {
+	private static final EnergyKernel BEST = load();
+
+	// the fastest kernel this runtime supports
+	public static EnergyKernel get() {
+		return BEST;
+	}
+
+	private static EnergyKernel load() {
+		try {
+			return (EnergyKernel) Class.forName("VectorEnergyKernel").getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			// incubator module not added, or the class was not compiled in
+			return new EnergyKernel();
+		}
+	}
+
+	// squared gradients of the n pixels starting at k, into out[off..]
+	public void gradients(int[] pixels, int k, int stride, int n, int[] out, int off) {
+		for (int i = 0; i < n; i++)
+			out[off + i] = gradient(pixels, k + i, stride);
+	}
+
+	// energies, the square roots of the squared gradients, into out[off..]
+	public void energies(int[] pixels, int k, int stride, int n, double[] out, int off) {
+		for (int i = 0; i < n; i++)
+			out[off + i] = Math.sqrt(gradient(pixels, k + i, stride));
+	}
+
+	static int gradient(int[] pixels, int k, int stride) {
+		int right = pixels[k + 1], left = pixels[k - 1], below = pixels[k + stride], above = pixels[k - stride];
+		int r_x = ((right >> 16) & 0xFF) - ((left >> 16) & 0xFF);
+		int g_x = ((right >> 8) & 0xFF) - ((left >> 8) & 0xFF);
+		int b_x = (right & 0xFF) - (left & 0xFF);
+
+		int r_y = ((below >> 16) & 0xFF) - ((above >> 16) & 0xFF);
+		int g_y = ((below >> 8) & 0xFF) - ((above >> 8) & 0xFF);
+		int b_y = (below & 0xFF) - (above & 0xFF);
+
+		return (r_x * r_x) + (g_x * g_x) + (b_x * b_x) + (r_y * r_y) + (g_y * g_y) + (b_y * b_y);
+	}
+
+	// checks the loaded kernel against the scalar one on random pictures, bit
+	// for bit. SeamCarver fills its energies through get(), so it would only
+	// compare the kernel with itself. run with --add-modules
+	// jdk.incubator.vector and vector/ compiled to check the vector kernel
+	public static void main(String[] args) {
+		EnergyKernel kernel = get();
+		EnergyKernel scalar = new EnergyKernel();
+		Random random = new Random(args.length > 0 ? Long.parseLong(args[0]) : 1);
+		int mismatches = 0;
+		for (int t = 0; t < 200; t++) {
+			int width = 3 + random.nextInt(200), height = 3 + random.nextInt(20);
+			int[] pixels = new int[width * height];
+			for (int k = 0; k < pixels.length; k++)
+				pixels[k] = random.nextInt(1 << 24);
+			double[] line = new double[width], expected = new double[width];
+			int[] gradients = new int[width], expectedGradients = new int[width];
+			for (int j = 1; j < height - 1; j++) {
+				kernel.energies(pixels, j * width + 1, width, width - 2, line, 1);
+				scalar.energies(pixels, j * width + 1, width, width - 2, expected, 1);
+				kernel.gradients(pixels, j * width + 1, width, width - 2, gradients, 1);
+				scalar.gradients(pixels, j * width + 1, width, width - 2, expectedGradients, 1);
+				for (int i = 1; i < width - 1; i++)
+					if (Double.doubleToLongBits(line[i]) != Double.doubleToLongBits(expected[i])
+							|| gradients[i] != expectedGradients[i])
+						mismatches++;
+			}
+		}
+		System.out.println(kernel.getClass().getName() + ": " + mismatches + " mismatches");
+	}
+}
@@ -1,5 +1,19 @@
 import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 import edu.princeton.cs.algs4.AcyclicSP;
 import edu.princeton.cs.algs4.DirectedEdge;
@@ -8,44 +22,156 @@ import edu.princeton.cs.algs4.Picture;
 import edu.princeton.cs.algs4.StdDraw;
 
 public class SeamCarver {
-	private int[][] pixels;
-	private double[][] energy;
+	// pixels and energies are stored as "lines" in flat row-major buffers: pixel i
+	// of line j is at j * stride + i. normally lines are picture rows; while
+	// transposed they are picture columns, so horizontal seams run through the
+	// same cache-friendly code as vertical ones. the buffers are only transposed
+	// when the seam direction changes, and removing a seam only shifts the tail
+	// of each line, so the stride stays fixed.
+	private int[] pixels;
+	// exactly one of the two energy planes is in use: doubles, or fixed-point
+	// ints holding round(energy * FIXED_ONE)
+	private double[] energy;
+	private int[] fixedEnergy;
+	// while an approximate batch removes or inserts several seams per search
+	// pass, pixels stay where they are and source[k] gives the pixels index of
+	// whatever now sits at position k; null otherwise
+	private int[] source;
+	private int stride;
+	private boolean transposed;
 	private int width, height;
+	private boolean parallel;
+	private final SeamScratch scratch;
+
+	// below this many pixels a whole-buffer pass stays on the calling thread
+	private static final int PARALLEL_MIN_PIXELS = 1 << 18;
+	// a parallel seam search gives each chunk at least this many positions, and
+	// relaxes at most MAX_BAND_LINES lines per chunk between synchronizations
+	private static final int MIN_CHUNK = 64;
+	private static final int MAX_BAND_LINES = 64;
+
+	// fixed-point energies carry 10 fractional bits
+	private static final int FIXED_SHIFT = 10;
+	private static final int FIXED_ONE = 1 << FIXED_SHIFT;
+	// largest squared dual gradient: both directions maxed out on all channels
+	private static final int MAX_GRADIENT = 2 * 3 * 255 * 255;
+
+	// round(sqrt(g) * FIXED_ONE) for every possible squared gradient g, built the
+	// first time a fixed-point carver is created
+	private static class FixedSqrt {
+		static final int[] TABLE = new int[MAX_GRADIENT + 1];
+		static {
+			for (int g = 0; g <= MAX_GRADIENT; g++)
+				TABLE[g] = (int) Math.round(Math.sqrt(g) * FIXED_ONE);
+		}
+	}
+
 	
 
 	// create a seam carver object based on the given picture
 	public SeamCarver(Picture picture) {
-		if (picture == null)
+		this(picture, false);
+	}
+
+	// with fixedPoint set, energies are kept as ints with 10 fractional bits and
+	// seam costs are summed as longs: half the memory for the energy plane and
+	// a table lookup instead of a square root per pixel. each stored energy is
+	// within 1/2048 of the exact one, so a seam of n pixels is off by at most
+	// n/2048. whenever the cheapest seam in double mode beats every other seam
+	// by more than n/1024 (n = height for vertical seams, width for horizontal
+	// ones), fixed-point mode finds the same seam. closer calls, exact ties
+	// included, may go either way; ties in fixed-point costs are broken by the
+	// same rules as in double mode. energy(x, y) then returns the fixed-point
+	// value converted back to a double
+	public SeamCarver(Picture picture, boolean fixedPoint) {
+		this(picture, fixedPoint, new SeamScratch());
+	}
+
+	// carves in the buffers of the given scratch, growing them as needed, so
+	// carvers created one after the other on it share their arrays. see
+	// SeamScratch for the one-live-carver rule
+	public SeamCarver(Picture picture, boolean fixedPoint, SeamScratch scratch) {
+		if (picture == null || scratch == null)
 			throw new IllegalArgumentException();
 
 		width = picture.width();
 		height = picture.height();
-		
-		//System.out.println(width);
-		//System.out.println(height);
-		
-		pixels = new int[width][height];
-		energy = new double[width][height];
-
-		for (int i = 0; i < width; i++) {
-			for (int j = 0; j < height; j++) {
-				pixels[i][j] = picture.getRGB(i, j);
+		this.scratch = scratch;
+		allocate(fixedPoint);
+
+		for (int j = 0; j < height; j++) {
+			for (int i = 0; i < width; i++) {
+				pixels[j * stride + i] = picture.getRGB(i, j);
 			}
 		}
 		recalculateEnergies();
 	}
 
+	// create a seam carver object from an image. images that keep packed int rgb
+	// pixels (TYPE_INT_RGB, TYPE_INT_ARGB) are copied straight from their
+	// raster, a line per arraycopy; others with a single bulk getRGB call
+	public SeamCarver(BufferedImage image, boolean fixedPoint, SeamScratch scratch) {
+		if (image == null || scratch == null)
+			throw new IllegalArgumentException();
+
+		width = image.getWidth();
+		height = image.getHeight();
+		this.scratch = scratch;
+		allocate(fixedPoint);
+
+		int type = image.getType();
+		WritableRaster raster = image.getRaster();
+		if ((type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)
+				&& raster.getDataBuffer() instanceof DataBufferInt
+				&& raster.getSampleModel() instanceof SinglePixelPackedSampleModel) {
+			DataBufferInt data = (DataBufferInt) raster.getDataBuffer();
+			int scan = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+			// a subimage shares its parent's buffer from some offset on
+			int base = data.getOffset() - raster.getSampleModelTranslateY() * scan
+					- raster.getSampleModelTranslateX();
+			int[] bank = data.getData();
+			for (int j = 0; j < height; j++)
+				System.arraycopy(bank, base + j * scan, pixels, j * stride, width);
+		} else {
+			image.getRGB(0, 0, width, height, pixels, 0, stride);
+		}
+		recalculateEnergies();
+	}
+
+	private void allocate(boolean fixedPoint) {
+		stride = width;
+		pixels = scratch.pixels = SeamScratch.grow(scratch.pixels, width * height);
+		if (fixedPoint)
+			fixedEnergy = scratch.fixedEnergy = SeamScratch.grow(scratch.fixedEnergy, width * height);
+		else
+			energy = scratch.energy = SeamScratch.grow(scratch.energy, width * height);
+	}
+
 	// current picture
 	public Picture picture() {
 		Picture newPicture = new Picture(width, height);
-		for (int i = 0; i < width; i++) {
-			for (int j = 0; j < height; j++) {
-				newPicture.setRGB(i, j, pixels[i][j]);
+		for (int j = 0; j < height; j++) {
+			for (int i = 0; i < width; i++) {
+				newPicture.setRGB(i, j, pixels[index(i, j)]);
 			}
 		}
 		return newPicture;
 	}
 
+	// current picture as an rgb image over the carver's own pixel buffer: no
+	// pixel is copied, unless the buffer has to be turned back to rows after
+	// horizontal seams. meant for handing the result to an encoder; the view
+	// is only valid until the next seam is removed or searched, or another
+	// carver takes over the scratch
+	public BufferedImage image() {
+		orient(true);
+		SinglePixelPackedSampleModel model = new SinglePixelPackedSampleModel(DataBuffer.TYPE_INT, width, height,
+				stride, new int[] { 0xFF0000, 0xFF00, 0xFF });
+		WritableRaster raster = Raster.createWritableRaster(model, new DataBufferInt(pixels, pixels.length), null);
+		ColorModel colors = new DirectColorModel(24, 0xFF0000, 0xFF00, 0xFF);
+		return new BufferedImage(colors, raster, false, null);
+	}
+
 	// width of current picture
 	public int width() {
 		return width;
@@ -56,6 +182,36 @@ public class SeamCarver {
 		return height;
 	}
 
+	// with parallel set, energy passes, transposes and pixel compaction are split
+	// into line bands, and seam-search lines long enough are relaxed in chunks,
+	// all on the common ForkJoin pool. results are the same either way
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	// runs body for lines 0..lines-1, in parallel when that is worth it
+	private void forEachLine(int lines, int lineLength, IntConsumer body) {
+		if (parallel && (long) lines * lineLength >= PARALLEL_MIN_PIXELS)
+			IntStream.range(0, lines).parallel().forEach(body);
+		else
+			for (int j = 0; j < lines; j++)
+				body.accept(j);
+	}
+
+	// pixels per line and number of lines in the current orientation
+	private int lineLength() {
+		return transposed ? height : width;
+	}
+
+	private int lineCount() {
+		return transposed ? width : height;
+	}
+
+	// buffer index of the pixel at column x and row y
+	private int index(int x, int y) {
+		return transposed ? x * stride + y : y * stride + x;
+	}
+
 	private int red(int rgb) {
 	    return (rgb >> 16) & 0xFF;
 	}
@@ -67,202 +223,445 @@ public class SeamCarver {
 	private int blue(int rgb) {
 	    return (rgb) & 0xFF;
 	}
+
+	// rgb of the pixel at position k, looked up through source during batches
+	private int rgb(int k) {
+		return source == null ? pixels[k] : pixels[source[k]];
+	}
 	
 	// energy of pixel at column x and row y
 	public double energy(int x, int y) {
 		if (x < 0 || x >= width || y < 0 || y >= height)
 			throw new IllegalArgumentException();
-		if (x == 0 || x == (width - 1) || y == 0 || y == (height - 1))
-			return 1000;
+		if (fixedEnergy != null)
+			return (double) fixedEnergy[index(x, y)] / FIXED_ONE;
+		return energy[index(x, y)];
+	}
+
+	// dual-gradient energy of pixel i of line j. the formula is symmetric in x
+	// and y, so it is the same in either orientation
+	private double computeEnergy(int i, int j) {
+		int gradient = squaredGradient(i, j);
+		return gradient < 0 ? 1000 : Math.sqrt(gradient);
+	}
 
-		int r_x = red(pixels[x + 1][y]) - red(pixels[x - 1][y]);
-		int g_x = green(pixels[x + 1][y]) - green(pixels[x - 1][y]);
-		int b_x = blue(pixels[x + 1][y]) - blue(pixels[x - 1][y]);
+	private int computeFixedEnergy(int i, int j) {
+		int gradient = squaredGradient(i, j);
+		return gradient < 0 ? 1000 * FIXED_ONE : FixedSqrt.TABLE[gradient];
+	}
+
+	// stores the energy of pixel i of line j in whichever plane is in use
+	private void updateEnergy(int i, int j) {
+		if (fixedEnergy != null)
+			fixedEnergy[j * stride + i] = computeFixedEnergy(i, j);
+		else
+			energy[j * stride + i] = computeEnergy(i, j);
+	}
 
-		int r_y = red(pixels[x][y + 1]) - red(pixels[x][y - 1]);
-		int g_y = green(pixels[x][y + 1]) - green(pixels[x][y - 1]);
-		int b_y = blue(pixels[x][y + 1]) - blue(pixels[x][y - 1]);
+	// sum of the squared x and y gradients of pixel i of line j, or -1 on the border
+	private int squaredGradient(int i, int j) {
+		if (i == 0 || i == (lineLength() - 1) || j == 0 || j == (lineCount() - 1))
+			return -1;
+
+		int k = j * stride + i;
+		int right = rgb(k + 1), left = rgb(k - 1), below = rgb(k + stride), above = rgb(k - stride);
+		int r_x = red(right) - red(left);
+		int g_x = green(right) - green(left);
+		int b_x = blue(right) - blue(left);
+
+		int r_y = red(below) - red(above);
+		int g_y = green(below) - green(above);
+		int b_y = blue(below) - blue(above);
 
 		int delta_x_squared = (r_x * r_x) + (g_x * g_x) + (b_x * b_x);
 		int delta_y_squared = (r_y * r_y) + (g_y * g_y) + (b_y * b_y);
 
-		return Math.sqrt(delta_x_squared + delta_y_squared);
+		return delta_x_squared + delta_y_squared;
 	}
 
+	// interior pixels go through the energy kernel a line at a time; the border,
+	// and every pixel while a batch reads through source, one at a time
 	private void recalculateEnergies()
 	{
-		for (int i = 0; i < width; i++) {
-			for (int j = 0; j < height; j++) {
-				energy[i][j] = energy(i, j);
+		EnergyKernel kernel = EnergyKernel.get();
+		int lines = lineCount(), length = lineLength();
+		forEachLine(lines, length, j -> {
+			if (source != null || j == 0 || j == lines - 1 || length < 3) {
+				for (int i = 0; i < length; i++) {
+					updateEnergy(i, j);
+				}
+				return;
 			}
+			int row = j * stride;
+			if (fixedEnergy != null) {
+				kernel.gradients(pixels, row + 1, stride, length - 2, fixedEnergy, row + 1);
+				for (int i = row + 1; i < row + length - 1; i++)
+					fixedEnergy[i] = FixedSqrt.TABLE[fixedEnergy[i]];
+			} else {
+				kernel.energies(pixels, row + 1, stride, length - 2, energy, row + 1);
+			}
+			updateEnergy(0, j);
+			updateEnergy(length - 1, j);
+		});
+	}
+
+	// makes lines run across the seam direction: picture rows for vertical seams,
+	// picture columns for horizontal ones. the planes are transposed into the
+	// spare ones, and the old planes become the spares
+	private void orient(boolean vertical) {
+		if (transposed != vertical)
+			return;
+		int lines = lineCount(), length = lineLength();
+		int[] newPixels = SeamScratch.grow(scratch.sparePixels, lines * length);
+		double[] newEnergy = energy == null ? null : SeamScratch.grow(scratch.spareEnergy, lines * length);
+		int[] newFixed = fixedEnergy == null ? null : SeamScratch.grow(scratch.spareFixed, lines * length);
+		forEachLine(lines, length, j -> {
+			for (int i = 0; i < length; i++) {
+				newPixels[i * lines + j] = pixels[j * stride + i];
+				if (newFixed != null)
+					newFixed[i * lines + j] = fixedEnergy[j * stride + i];
+				else
+					newEnergy[i * lines + j] = energy[j * stride + i];
+			}
+		});
+		scratch.sparePixels = pixels;
+		scratch.pixels = pixels = newPixels;
+		if (newFixed != null) {
+			scratch.spareFixed = fixedEnergy;
+			scratch.fixedEnergy = fixedEnergy = newFixed;
+		} else {
+			scratch.spareEnergy = energy;
+			scratch.energy = energy = newEnergy;
 		}
+		stride = lines;
+		transposed = !vertical;
 	}
 	
-	private double computeVerticalSingleSourceSP(int s, int[] returnedSeam)
-	{
-		double[] distTo = new double[width * height];
-		int[] edgeTo1 = new int[width * height];
-		int[] edgeTo2 = new int[width * height];
-		
-		for (int i = 0; i < distTo.length; i++)
-			distTo[i] = Double.POSITIVE_INFINITY;
-		distTo[s] = 0.0;
-		
-		for (int i = 0; i < height - 1; i++) {
-			for (int j = 0; j < width; j++) {
-				int startingVertex = mapCoordinates(j, i);
-				if (j != 0) {
-					int leftVertex = mapCoordinates(j - 1, i + 1);
-					relax(distTo, edgeTo1, edgeTo2, startingVertex, leftVertex);
-				}
-				if (j != width - 1) {
-					int rightVertex = mapCoordinates(j + 1, i + 1);
-					relax(distTo, edgeTo1, edgeTo2, startingVertex, rightVertex);
-				}
-				
-				int middleVertex = mapCoordinates(j, i + 1);
-				relax(distTo, edgeTo1, edgeTo2, startingVertex, middleVertex);
+	// one dynamic-programming pass over all seams at once. cost[i] is the cheapest
+	// path from the first line to position i of the current line and start[i] the
+	// position it started from; a backpointer byte per pixel records whether it
+	// came from i - 1, i or i + 1. among equal costs the path with the smaller
+	// start wins, then the predecessors i - 1, i, i + 1 in that order, which
+	// gives exactly the seam that one shortest-path search per start produced.
+	private int[] findSeam(boolean vertical) {
+		orient(vertical);
+		int length = lineCount();
+		int breadth = lineLength();
+
+		byte[] from = scratch.from = SeamScratch.grow(scratch.from, length * breadth);
+		int[] start = scratch.start = SeamScratch.grow(scratch.start, breadth);
+		double[] cost = searchLines(from, start, null);
+		return trace(from, cheapestEnd(cost, start, breadth));
+	}
+
+	// where the seam ends on the last line: the cheapest path, the one with
+	// the smaller start among equal costs
+	static int cheapestEnd(double[] cost, int[] start, int breadth) {
+		int end = 0;
+		for (int i = 1; i < breadth; i++)
+			if (cost[i] < cost[end] || (cost[i] == cost[end] && start[i] < start[end]))
+				end = i;
+		return end;
+	}
+
+	// runs the dynamic-programming pass over all lines, filling the backpointers
+	// and start with the starting position of each path; returns the path costs
+	// at the last line. if costs is not null it also gets the path cost of every
+	// pixel
+	private double[] searchLines(byte[] from, int[] start, double[] costs) {
+		if (fixedEnergy != null)
+			return searchLinesFixed(from, start, costs);
+		int length = lineCount();
+		int breadth = lineLength();
+
+		double[] cost = scratch.cost = SeamScratch.grow(scratch.cost, breadth);
+		double[] nextCost = scratch.nextCost = SeamScratch.grow(scratch.nextCost, breadth);
+		int[] nextStart = scratch.nextStart = SeamScratch.grow(scratch.nextStart, breadth);
+		int[] starts = start;
+		for (int i = 0; i < breadth; i++) {
+			cost[i] = 0;
+			start[i] = i;
+			if (costs != null)
+				costs[i] = 0;
+		}
+
+		int chunks = searchChunks(length, breadth);
+		int band = bandLines(chunks, breadth);
+		if (chunks > 1) {
+			int size = chunks * bandWidth(chunks, breadth, band);
+			scratch.bandCost = SeamScratch.grow(scratch.bandCost, size);
+			scratch.bandNextCost = SeamScratch.grow(scratch.bandNextCost, size);
+			growBand(size);
+		}
+		for (int j = 1; j < length; j += band) {
+			if (chunks > 1) {
+				int first = j, last = Math.min(length, j + band);
+				double[] c = cost, nc = nextCost;
+				int[] st = start, nst = nextStart;
+				IntStream.range(0, chunks).parallel()
+						.forEach(k -> relaxBand(k, chunks, first, last, breadth, c, st, nc, nst, from, costs));
+			} else {
+				relaxLine(energy, j * stride, 0, breadth, breadth, cost, start, nextCost, nextStart, 0, from, j * breadth);
+				if (costs != null)
+					System.arraycopy(nextCost, 0, costs, j * breadth, breadth);
 			}
+			double[] swapCost = cost;
+			cost = nextCost;
+			nextCost = swapCost;
+			int[] swapStart = start;
+			start = nextStart;
+			nextStart = swapStart;
+		}
+		if (start != starts)
+			System.arraycopy(start, 0, starts, 0, breadth);
+		return cost;
+	}
+
+	// same search over the fixed-point plane. costs stay exact as longs; the
+	// last line is handed back as doubles, which hold them exactly
+	private double[] searchLinesFixed(byte[] from, int[] start, double[] costs) {
+		int length = lineCount();
+		int breadth = lineLength();
+
+		long[] cost = scratch.fixedCost = SeamScratch.grow(scratch.fixedCost, breadth);
+		long[] nextCost = scratch.nextFixedCost = SeamScratch.grow(scratch.nextFixedCost, breadth);
+		int[] nextStart = scratch.nextStart = SeamScratch.grow(scratch.nextStart, breadth);
+		int[] starts = start;
+		for (int i = 0; i < breadth; i++) {
+			cost[i] = 0;
+			start[i] = i;
+			if (costs != null)
+				costs[i] = 0;
 		}
-		
-		int minPathStarting = 0;
-		int minPathEnding = 0;
-		double minPathLength = Double.POSITIVE_INFINITY;
-		
-		for (int j = 0; j < width; j++) {
-			if (distTo[mapCoordinates(j, height - 1)] < minPathLength) {
-				minPathLength = distTo[mapCoordinates(j, height - 1)];
-				minPathStarting = mapCoordinates(s, 0);
-				minPathEnding = mapCoordinates(j, height - 1);
+
+		int chunks = searchChunks(length, breadth);
+		int band = bandLines(chunks, breadth);
+		if (chunks > 1) {
+			int size = chunks * bandWidth(chunks, breadth, band);
+			scratch.bandFixedCost = SeamScratch.grow(scratch.bandFixedCost, size);
+			scratch.bandNextFixedCost = SeamScratch.grow(scratch.bandNextFixedCost, size);
+			growBand(size);
+		}
+		for (int j = 1; j < length; j += band) {
+			if (chunks > 1) {
+				int first = j, last = Math.min(length, j + band);
+				long[] c = cost, nc = nextCost;
+				int[] st = start, nst = nextStart;
+				IntStream.range(0, chunks).parallel()
+						.forEach(k -> relaxBandFixed(k, chunks, first, last, breadth, c, st, nc, nst, from, costs));
+			} else {
+				relaxLineFixed(fixedEnergy, j * stride, 0, breadth, breadth, cost, start, nextCost, nextStart, 0, from, j * breadth);
+				if (costs != null)
+					for (int i = 0; i < breadth; i++)
+						costs[j * breadth + i] = nextCost[i];
 			}
+			long[] swapCost = cost;
+			cost = nextCost;
+			nextCost = swapCost;
+			int[] swapStart = start;
+			start = nextStart;
+			nextStart = swapStart;
+		}
+		if (start != starts)
+			System.arraycopy(start, 0, starts, 0, breadth);
+		double[] result = scratch.cost = SeamScratch.grow(scratch.cost, breadth);
+		for (int i = 0; i < breadth; i++)
+			result[i] = cost[i];
+		return result;
+	}
+
+	// how many chunks a search over lines x breadth pixels is split into, one
+	// per worker of the common pool; 1 keeps it on the calling thread, without
+	// allocations. the threshold is on the whole search, as in forEachLine
+	private int searchChunks(int lines, int breadth) {
+		if (!parallel || (long) lines * breadth < PARALLEL_MIN_PIXELS)
+			return 1;
+		return Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism(), breadth / MIN_CHUNK));
+	}
+
+	// lines relaxed per band. a chunk recomputes up to this many positions on
+	// either side of its own, so bands stay short next to the chunk width
+	private static int bandLines(int chunks, int breadth) {
+		if (chunks == 1)
+			return 1;
+		return Math.max(1, Math.min(MAX_BAND_LINES, breadth / chunks / 8));
+	}
+
+	// slice of the band buffers each chunk works in
+	private static int bandWidth(int chunks, int breadth, int band) {
+		return (breadth + chunks - 1) / chunks + 2 * band;
+	}
+
+	// first position of chunk k
+	private static int chunkStart(int k, int chunks, int breadth) {
+		return (int) ((long) k * breadth / chunks);
+	}
+
+	private void growBand(int size) {
+		scratch.bandStart = SeamScratch.grow(scratch.bandStart, size);
+		scratch.bandNextStart = SeamScratch.grow(scratch.bandNextStart, size);
+		scratch.bandFrom = SeamScratch.grow(scratch.bandFrom, size);
+	}
+
+	// relaxes lines first..last-1 for the positions chunk k owns, starting from
+	// line first - 1 in cost and start. the chunk works in its own slice of the
+	// band buffers and also recomputes a margin around its positions that
+	// shrinks by one per line, so within the band it never waits for its
+	// neighbours; at the end only its own positions go back to nextCost and
+	// nextStart. backpointers of the margin go to a throwaway buffer
+	private void relaxBand(int k, int chunks, int first, int last, int breadth, double[] cost, int[] start,
+			double[] nextCost, int[] nextStart, byte[] from, double[] costs) {
+		int lines = last - first;
+		int lo = chunkStart(k, chunks, breadth), hi = chunkStart(k + 1, chunks, breadth);
+		// position i lives at i - base of the slice
+		int base = lo - lines - k * bandWidth(chunks, breadth, lines);
+		double[] c = scratch.bandCost, nc = scratch.bandNextCost;
+		int[] st = scratch.bandStart, nst = scratch.bandNextStart;
+		byte[] margin = scratch.bandFrom;
+		for (int i = Math.max(0, lo - lines); i < Math.min(breadth, hi + lines); i++) {
+			c[i - base] = cost[i];
+			st[i - base] = start[i];
+		}
+
+		for (int j = first; j < last; j++) {
+			int reach = last - 1 - j;
+			int a = Math.max(0, lo - reach), b = Math.min(breadth, hi + reach);
+			relaxLine(energy, j * stride, a, lo, breadth, c, st, nc, nst, base, margin, -base);
+			relaxLine(energy, j * stride, lo, hi, breadth, c, st, nc, nst, base, from, j * breadth);
+			relaxLine(energy, j * stride, hi, b, breadth, c, st, nc, nst, base, margin, -base);
+			if (costs != null)
+				for (int i = lo; i < hi; i++)
+					costs[j * breadth + i] = nc[i - base];
+			double[] swapCost = c;
+			c = nc;
+			nc = swapCost;
+			int[] swapStart = st;
+			st = nst;
+			nst = swapStart;
 		}
-		
-		int nextVertex = minPathEnding;
-		for (int i = height - 1; i >= 0; i--) {
-			returnedSeam[i] = mapBackToX(nextVertex);
-			nextVertex = edgeTo2[nextVertex];
+		for (int i = lo; i < hi; i++) {
+			nextCost[i] = c[i - base];
+			nextStart[i] = st[i - base];
 		}
-		
-		return minPathLength;
 	}
-	
-	private double computeHorizontalSingleSourceSP(int s, int[] returnedSeam)
-	{
-		double[] distTo = new double[width * height];
-		int[] edgeTo1 = new int[width * height];
-		int[] edgeTo2 = new int[width * height];
-		
-		for (int i = 0; i < distTo.length; i++)
-			distTo[i] = Double.POSITIVE_INFINITY;
-		distTo[s] = 0.0;
-		
-		for (int i = 0; i < width - 1; i++) {
-			for (int j = 0; j < height; j++) {
-				int startingVertex = mapCoordinates(i, j);
-				if (j != 0) {
-					int upVertex = mapCoordinates(i + 1, j - 1);
-					relax(distTo, edgeTo1, edgeTo2, startingVertex, upVertex);
-				}
-				if (j != height - 1) {
-					int downVertex = mapCoordinates(i + 1, j + 1);
-					relax(distTo, edgeTo1, edgeTo2, startingVertex, downVertex);
+
+	private void relaxBandFixed(int k, int chunks, int first, int last, int breadth, long[] cost, int[] start,
+			long[] nextCost, int[] nextStart, byte[] from, double[] costs) {
+		int lines = last - first;
+		int lo = chunkStart(k, chunks, breadth), hi = chunkStart(k + 1, chunks, breadth);
+		int base = lo - lines - k * bandWidth(chunks, breadth, lines);
+		long[] c = scratch.bandFixedCost, nc = scratch.bandNextFixedCost;
+		int[] st = scratch.bandStart, nst = scratch.bandNextStart;
+		byte[] margin = scratch.bandFrom;
+		for (int i = Math.max(0, lo - lines); i < Math.min(breadth, hi + lines); i++) {
+			c[i - base] = cost[i];
+			st[i - base] = start[i];
+		}
+
+		for (int j = first; j < last; j++) {
+			int reach = last - 1 - j;
+			int a = Math.max(0, lo - reach), b = Math.min(breadth, hi + reach);
+			relaxLineFixed(fixedEnergy, j * stride, a, lo, breadth, c, st, nc, nst, base, margin, -base);
+			relaxLineFixed(fixedEnergy, j * stride, lo, hi, breadth, c, st, nc, nst, base, from, j * breadth);
+			relaxLineFixed(fixedEnergy, j * stride, hi, b, breadth, c, st, nc, nst, base, margin, -base);
+			if (costs != null)
+				for (int i = lo; i < hi; i++)
+					costs[j * breadth + i] = nc[i - base];
+			long[] swapCost = c;
+			c = nc;
+			nc = swapCost;
+			int[] swapStart = st;
+			st = nst;
+			nst = swapStart;
+		}
+		for (int i = lo; i < hi; i++) {
+			nextCost[i] = c[i - base];
+			nextStart[i] = st[i - base];
+		}
+	}
+
+	// follows the backpointers up from position end of the last line. the first
+	// line has none, and in a reused buffer whatever is there is stale
+	private int[] trace(byte[] from, int end) {
+		int length = lineCount();
+		int breadth = lineLength();
+		int[] seam = new int[length];
+		for (int j = length - 1; j > 0; j--) {
+			seam[j] = end;
+			end += from[j * breadth + end];
+		}
+		seam[0] = end;
+		return seam;
+	}
+
+	// fills positions lo..hi-1 of a line from the line before it, whose path
+	// costs and starts are in cost and start. the line's energies start at
+	// energy[row], position i is at i - base of the cost and start arrays, and
+	// its backpointer goes to from[fromRow + i]. TiledSeamCarver relaxes its
+	// lines with the same method, so both pick the same seams
+	static void relaxLine(double[] energy, int row, int lo, int hi, int breadth, double[] cost, int[] start,
+			double[] nextCost, int[] nextStart, int base, byte[] from, int fromRow) {
+		for (int i = lo; i < hi; i++) {
+			double e = energy[row + i];
+			double best = Double.POSITIVE_INFINITY;
+			int bestStart = Integer.MAX_VALUE;
+			int bestFrom = 0;
+			for (int d = -1; d <= 1; d++) {
+				int p = i + d;
+				if (p < 0 || p >= breadth)
+					continue;
+				double c = cost[p - base] + e;
+				if (c < best || (c == best && start[p - base] < bestStart)) {
+					best = c;
+					bestStart = start[p - base];
+					bestFrom = d;
 				}
-				
-				int middleVertex = mapCoordinates(i + 1, j);
-				relax(distTo, edgeTo1, edgeTo2, startingVertex, middleVertex);
 			}
+			nextCost[i - base] = best;
+			nextStart[i - base] = bestStart;
+			from[fromRow + i] = (byte) bestFrom;
 		}
-		
-		int minPathStarting = 0;
-		int minPathEnding = 0;
-		double minPathLength = Double.POSITIVE_INFINITY;
-		
-		for (int j = 0; j < height; j++) {
-			if (distTo[mapCoordinates(width - 1, j)] < minPathLength) {
-				minPathLength = distTo[mapCoordinates(width - 1, j)];
-				minPathStarting = mapCoordinates(0, s);
-				minPathEnding = mapCoordinates(width - 1, j);
+	}
+
+	private static void relaxLineFixed(int[] fixedEnergy, int row, int lo, int hi, int breadth, long[] cost,
+			int[] start, long[] nextCost, int[] nextStart, int base, byte[] from, int fromRow) {
+		for (int i = lo; i < hi; i++) {
+			int e = fixedEnergy[row + i];
+			long best = Long.MAX_VALUE;
+			int bestStart = Integer.MAX_VALUE;
+			int bestFrom = 0;
+			for (int d = -1; d <= 1; d++) {
+				int p = i + d;
+				if (p < 0 || p >= breadth)
+					continue;
+				long c = cost[p - base] + e;
+				if (c < best || (c == best && start[p - base] < bestStart)) {
+					best = c;
+					bestStart = start[p - base];
+					bestFrom = d;
+				}
 			}
+			nextCost[i - base] = best;
+			nextStart[i - base] = bestStart;
+			from[fromRow + i] = (byte) bestFrom;
 		}
-		
-		int nextVertex = minPathEnding;
-		for (int i = width - 1; i >= 0; i--) {
-			returnedSeam[i] = mapBackToY(nextVertex);
-			nextVertex = edgeTo2[nextVertex];
-		}
-		
-		return minPathLength;
-	}
-	
-	private void relax(double[] distTo, int[] edgeTo1, int[] edgeTo2, int from, int to )
-	{
-		//System.out.println(mapBackToX(to) + " " + mapBackToY(to));
-		if (distTo[to] > distTo[from] + energy[mapBackToX(to)][mapBackToY(to)]) {
-            distTo[to] = distTo[from] + energy[mapBackToX(to)][mapBackToY(to)];
-            edgeTo1[to] = to;
-            edgeTo2[to] = from;
-        }
 	}
-	
+
 	// sequence of indices for horizontal seam
 	public int[] findHorizontalSeam() {
-		int[] seam = new int[width];
-		double minPathLength = Double.POSITIVE_INFINITY;
-		int startingVertex = 0;
-		for (int i = 0; i < height; i++) {
-			double returnedLength = computeHorizontalSingleSourceSP(mapCoordinates(0, i), seam);
-			if (returnedLength < minPathLength)
-			{
-				minPathLength = returnedLength;
-				startingVertex = mapCoordinates(0, i);
-			}
-		}
-		
-		//System.out.println("minPathStarting: " + mapBackToX(minPathStarting) + " " + mapBackToY(minPathStarting));
-		//System.out.println("minPathEnding: " + mapBackToX(minPathEnding) + " " + mapBackToY(minPathEnding));
-		
-		computeHorizontalSingleSourceSP(startingVertex, seam);
-		return seam;
+		return findSeam(false);
 	}
 
 	// sequence of indices for vertical seam
 	public int[] findVerticalSeam() {
-		int[] seam = new int[height];
-		double minPathLength = Double.POSITIVE_INFINITY;
-		int startingVertex = 0;
-		for (int i = 0; i < width; i++) {
-			double returnedLength = computeVerticalSingleSourceSP(mapCoordinates(i, 0), seam);
-			if (returnedLength < minPathLength)
-			{
-				minPathLength = returnedLength;
-				startingVertex = mapCoordinates(i, 0);
-			}
-		}
-		
-		//System.out.println("minPathStarting: " + mapBackToX(minPathStarting) + " " + mapBackToY(minPathStarting));
-		//System.out.println("minPathEnding: " + mapBackToX(minPathEnding) + " " + mapBackToY(minPathEnding));
-		
-		computeVerticalSingleSourceSP(startingVertex, seam);
-		return seam;
+		return findSeam(true);
 	}
 
 	// remove horizontal seam from current picture
 	public void removeHorizontalSeam(int[] seam) {
 		if (seam == null || seam.length != width || height <= 1)
 			throw new IllegalArgumentException();
-
-		for (int i = 0; i < width; i++) {
-			//System.out.println(seam[i]);
-			if (seam[i] < 0 || seam[i] >= height || (i != width -1 && (seam[i] - seam[i + 1] > 1 || seam[i] - seam[i + 1] < -1)))
-				throw new IllegalArgumentException();
-			
-			for (int j = seam[i]; j < height - 1; j++) {
-				pixels[i][j] = pixels[i][j + 1];
-			}
-		}
-
-		height--;
-		recalculateEnergies();
+		removeSeam(seam, false);
 	}
 	
 	
@@ -270,35 +669,332 @@ public class SeamCarver {
 	public void removeVerticalSeam(int[] seam) {
 		if (seam == null || seam.length != height || width <= 1)
 			throw new IllegalArgumentException();
-		
-		for (int i = 0; i < height; i++) {
-			//System.out.println(seam[i]);
-			if (seam[i] < 0 || seam[i] >= width || (i != height -1 && (seam[i] - seam[i + 1] > 1 || seam[i] - seam[i + 1] < -1)))
+		removeSeam(seam, true);
+	}
+
+	// the seam holds one position per line of the matching orientation; it is
+	// checked completely before any pixel moves
+	private void removeSeam(int[] seam, boolean vertical) {
+		int breadth = vertical ? width : height;
+		for (int i = 0; i < seam.length; i++) {
+			if (seam[i] < 0 || seam[i] >= breadth || (i != seam.length - 1 && (seam[i] - seam[i + 1] > 1 || seam[i] - seam[i + 1] < -1)))
 				throw new IllegalArgumentException();
+		}
+
+		orient(vertical);
+		cutSeam(seam, vertical);
+	}
 
-			for (int j = seam[i]; j < width - 1; j++) {
-				pixels[j][i] = pixels[j + 1][i];
+	// shifts the tail of every line over the seam
+	private void cutSeam(int[] seam, boolean vertical) {
+		int breadth = lineLength();
+		Object plane = fixedEnergy == null ? energy : fixedEnergy;
+		forEachLine(seam.length, breadth, j -> {
+			int row = j * stride;
+			System.arraycopy(pixels, row + seam[j] + 1, pixels, row + seam[j], breadth - seam[j] - 1);
+			System.arraycopy(plane, row + seam[j] + 1, plane, row + seam[j], breadth - seam[j] - 1);
+		});
+
+		if (vertical)
+			width--;
+		else
+			height--;
+		updateEnergiesAlong(seam);
+	}
+
+	// remove k vertical seams, the same ones k calls of findVerticalSeam and
+	// removeVerticalSeam would. each exact seam needs the energies its
+	// predecessor left behind, so the lines are shifted once per seam
+	public void removeVerticalSeams(int k) {
+		removeVerticalSeams(k, false);
+	}
+
+	// with approximate set, seams are taken several at a time from one search
+	// pass: the cheapest ones whose paths do not share a pixel. much faster, but
+	// later seams no longer see the energies left behind by earlier ones. the
+	// pixels then move only once, when the whole batch is done
+	public void removeVerticalSeams(int k, boolean approximate) {
+		if (k < 0 || k >= width)
+			throw new IllegalArgumentException();
+		removeSeams(k, true, approximate);
+	}
+
+	// remove k horizontal seams, see removeVerticalSeams
+	public void removeHorizontalSeams(int k) {
+		removeHorizontalSeams(k, false);
+	}
+
+	public void removeHorizontalSeams(int k, boolean approximate) {
+		if (k < 0 || k >= height)
+			throw new IllegalArgumentException();
+		removeSeams(k, false, approximate);
+	}
+
+	private void removeSeams(int k, boolean vertical, boolean approximate) {
+		if (k == 0)
+			return;
+		orient(vertical);
+		if (!approximate) {
+			for (int n = 0; n < k; n++)
+				cutSeam(findSeam(vertical), vertical);
+			return;
+		}
+
+		startBatch();
+		while (k > 0) {
+			int[][] seams = selectSeams(k);
+			cutSeams(seams, vertical);
+			k -= seams.length;
+		}
+		compact();
+	}
+
+	// points every position at its own pixel
+	private void startBatch() {
+		int length = lineLength();
+		source = scratch.source = SeamScratch.grow(scratch.source, pixels.length);
+		forEachLine(lineCount(), length, j -> {
+			for (int i = 0; i < length; i++)
+				source[j * stride + i] = j * stride + i;
+		});
+	}
+
+	// insert k vertical seams. the seams are picked as removeVerticalSeams(k,
+	// true) would remove them: the cheapest ones that share no pixel, several
+	// per search pass, with their pixels left out of the later passes so that
+	// the same low-energy seam is not picked over and over. each picked pixel
+	// then gets a new neighbour to its right with the average colour of the
+	// two, in one pass into a wider buffer. k must be below the current width
+	public void insertVerticalSeams(int k) {
+		if (k < 0 || k >= width)
+			throw new IllegalArgumentException();
+		insertSeams(k, true);
+	}
+
+	// insert k horizontal seams, see insertVerticalSeams; new pixels go below
+	public void insertHorizontalSeams(int k) {
+		if (k < 0 || k >= height)
+			throw new IllegalArgumentException();
+		insertSeams(k, false);
+	}
+
+	private void insertSeams(int k, boolean vertical) {
+		if (k == 0)
+			return;
+		orient(vertical);
+		int lines = lineCount(), breadth = lineLength();
+
+		// select on the source map, translating every seam back to the
+		// positions it had before the selection started
+		startBatch();
+		int[][] chosen = new int[k][];
+		for (int n = 0; n < k;) {
+			int[][] seams = selectSeams(k - n);
+			for (int[] seam : seams) {
+				int[] original = new int[lines];
+				for (int j = 0; j < lines; j++)
+					original[j] = source[j * stride + seam[j]] - j * stride;
+				chosen[n++] = original;
 			}
+			cutSeams(seams, vertical);
 		}
+		source = null;
 
-		width--;
+		int wide = breadth + k;
+		int[] newPixels = SeamScratch.grow(scratch.sparePixels, lines * wide);
+		forEachLine(lines, wide, j -> {
+			int[] picked = new int[k];
+			for (int s = 0; s < k; s++)
+				picked[s] = chosen[s][j];
+			Arrays.sort(picked);
+			int row = j * stride, to = j * wide, from = 0;
+			for (int p : picked) {
+				System.arraycopy(pixels, row + from, newPixels, to, p - from + 1);
+				to += p - from + 1;
+				newPixels[to++] = average(pixels[row + p], pixels[row + Math.min(p + 1, breadth - 1)]);
+				from = p + 1;
+			}
+			System.arraycopy(pixels, row + from, newPixels, to, breadth - from);
+		});
+		scratch.sparePixels = pixels;
+		scratch.pixels = pixels = newPixels;
+		if (fixedEnergy != null) {
+			int[] newFixed = SeamScratch.grow(scratch.spareFixed, lines * wide);
+			scratch.spareFixed = fixedEnergy;
+			scratch.fixedEnergy = fixedEnergy = newFixed;
+		} else {
+			double[] newEnergy = SeamScratch.grow(scratch.spareEnergy, lines * wide);
+			scratch.spareEnergy = energy;
+			scratch.energy = energy = newEnergy;
+		}
+		stride = wide;
+		if (vertical)
+			width = wide;
+		else
+			height = wide;
 		recalculateEnergies();
 	}
 
-	private int mapCoordinates(int x, int y) {
-		return y * width + x;
+	// channel-wise average of two colours, keeping the alpha of the first
+	private static int average(int a, int b) {
+		int red = (((a >> 16) & 0xFF) + ((b >> 16) & 0xFF)) / 2;
+		int green = (((a >> 8) & 0xFF) + ((b >> 8) & 0xFF)) / 2;
+		int blue = ((a & 0xFF) + (b & 0xFF)) / 2;
+		return (a & 0xFF000000) | (red << 16) | (green << 8) | blue;
 	}
-	
-	private int mapBackToX(int a)
-	{
-		return a % width;
+
+	// one search pass, then up to k seams traced back from the cheapest ends in
+	// the usual order. where a trace runs into a pixel an earlier seam took, it
+	// steps to the cheapest free pixel among the three above instead, by the
+	// path costs of the pass; a trace with none free is dropped. the cheapest
+	// seam is always taken
+	private int[][] selectSeams(int k) {
+		int length = lineCount();
+		int breadth = lineLength();
+		byte[] from = scratch.from = SeamScratch.grow(scratch.from, length * breadth);
+		int[] start = scratch.start = SeamScratch.grow(scratch.start, breadth);
+		double[] costs = scratch.pathCosts = SeamScratch.grow(scratch.pathCosts, length * breadth);
+		double[] cost = searchLines(from, start, costs);
+
+		int[] ends = scratch.ends = SeamScratch.grow(scratch.ends, breadth);
+		scratch.spareEnds = SeamScratch.grow(scratch.spareEnds, breadth);
+		for (int i = 0; i < breadth; i++)
+			ends[i] = i;
+		sortEnds(ends, scratch.spareEnds, breadth, cost, start);
+
+		boolean[] taken = scratch.taken = SeamScratch.grow(scratch.taken, length * breadth);
+		Arrays.fill(taken, 0, length * breadth, false);
+		List<int[]> seams = new ArrayList<>();
+		for (int e = 0; e < breadth && seams.size() < k; e++) {
+			int[] seam = traceFree(from, costs, taken, ends[e]);
+			if (seam == null)
+				continue;
+			for (int j = 0; j < length; j++)
+				taken[j * breadth + seam[j]] = true;
+			seams.add(seam);
+		}
+		return seams.toArray(new int[0][]);
 	}
-	
-	private int mapBackToY(int a)
-	{	
-		return a / width;
+
+	// sorts ends[0..n-1] by path cost, then start, then position, as findSeam
+	// ranks them; a bottom-up merge sort of primitive ints through buffer
+	private static void sortEnds(int[] ends, int[] buffer, int n, double[] cost, int[] start) {
+		int[] src = ends, dst = buffer;
+		for (int run = 1; run < n; run *= 2) {
+			for (int lo = 0; lo < n; lo += 2 * run) {
+				int mid = Math.min(n, lo + run), hi = Math.min(n, lo + 2 * run);
+				int a = lo, b = mid;
+				for (int k = lo; k < hi; k++) {
+					if (b == hi || (a < mid && endBefore(src[a], src[b], cost, start)))
+						dst[k] = src[a++];
+					else
+						dst[k] = src[b++];
+				}
+			}
+			int[] swap = src;
+			src = dst;
+			dst = swap;
+		}
+		if (src != ends)
+			System.arraycopy(src, 0, ends, 0, n);
 	}
-	
+
+	private static boolean endBefore(int a, int b, double[] cost, int[] start) {
+		if (cost[a] != cost[b])
+			return cost[a] < cost[b];
+		if (start[a] != start[b])
+			return start[a] < start[b];
+		return a < b;
+	}
+
+	private int[] traceFree(byte[] from, double[] costs, boolean[] taken, int end) {
+		int length = lineCount();
+		int breadth = lineLength();
+		if (taken[(length - 1) * breadth + end])
+			return null;
+		int[] seam = new int[length];
+		seam[length - 1] = end;
+		for (int j = length - 1; j > 0; j--) {
+			int above = (j - 1) * breadth;
+			int next = end + from[j * breadth + end];
+			if (taken[above + next]) {
+				next = -1;
+				for (int d = -1; d <= 1; d++) {
+					int p = end + d;
+					if (p >= 0 && p < breadth && !taken[above + p] && (next < 0 || costs[above + p] < costs[above + next]))
+						next = p;
+				}
+				if (next < 0)
+					return null;
+			}
+			seam[j - 1] = next;
+			end = next;
+		}
+		return seam;
+	}
+
+	// removes seams that share no pixel all at once, then recomputes energies
+	private void cutSeams(int[][] seams, boolean vertical) {
+		int breadth = lineLength();
+		forEachLine(lineCount(), breadth, j -> {
+			int row = j * stride;
+			int[] cut = new int[seams.length];
+			for (int s = 0; s < seams.length; s++)
+				cut[s] = seams[s][j];
+			Arrays.sort(cut);
+			int to = row + cut[0];
+			for (int s = 0; s < cut.length; s++) {
+				int next = s + 1 < cut.length ? cut[s + 1] : breadth;
+				int n = next - cut[s] - 1;
+				System.arraycopy(source, row + cut[s] + 1, source, to, n);
+				to += n;
+			}
+		});
+
+		if (vertical)
+			width -= seams.length;
+		else
+			height -= seams.length;
+		recalculateEnergies();
+	}
+
+	// moves the pixels source points at into place, one arraycopy per run of
+	// pixels that were neighbours to begin with, and drops the map
+	private void compact() {
+		int length = lineLength();
+		forEachLine(lineCount(), length, j -> {
+			int row = j * stride;
+			for (int i = 0; i < length;) {
+				int first = source[row + i], n = 1;
+				while (i + n < length && source[row + i + n] == first + n)
+					n++;
+				System.arraycopy(pixels, first, pixels, row + i, n);
+				i += n;
+			}
+		});
+		source = null;
+	}
+
+	// after a seam removal only pixels whose neighbours changed need a new energy:
+	// on line j those between the seam positions of lines j - 1 .. j + 1, plus the
+	// one just before them. everything else moved together with its neighbours
+	private void updateEnergiesAlong(int[] seam) {
+		int length = lineLength();
+		for (int j = 0; j < seam.length; j++) {
+			int lo = seam[j], hi = seam[j];
+			if (j > 0) {
+				lo = Math.min(lo, seam[j - 1]);
+				hi = Math.max(hi, seam[j - 1]);
+			}
+			if (j < seam.length - 1) {
+				lo = Math.min(lo, seam[j + 1]);
+				hi = Math.max(hi, seam[j + 1]);
+			}
+			for (int i = Math.max(0, lo - 1); i <= Math.min(hi, length - 1); i++)
+				updateEnergy(i, j);
+		}
+	}
+
 	//unit testing (optional)
 	public static void main(String[] args) {
 		Picture p = new Picture(new File("C:\\Users\\zzlawlzz\\eclipse-workspace\\Seam Carving\\src\\deneme.png"));
@@ -0,0 +1,48 @@
+// working buffers of SeamCarver that can outlive one carver. arrays only ever
+// grow, so a worker carving picture after picture keeps reusing the same
+// pixel and energy planes, transpose targets and seam-search arrays instead of
+// allocating image-sized arrays per seam and per picture. a scratch backs one
+// live carver at a time: a carver created on it takes the buffers over, and
+// the previous carver must not be used any more
+public class SeamScratch {
+	// the current planes and the ones a transpose writes into next
+	int[] pixels, sparePixels;
+	double[] energy, spareEnergy;
+	int[] fixedEnergy, spareFixed;
+	// batch source map, backpointers and per-line search state
+	int[] source, start, nextStart;
+	byte[] from;
+	double[] cost, nextCost;
+	long[] fixedCost, nextFixedCost;
+	// path cost of every pixel, for picking several seams from one search
+	double[] pathCosts;
+	// approximate batches: seam ends in the order they are tried, and the pixels
+	// already taken by a seam of the current pass
+	int[] ends, spareEnds;
+	boolean[] taken;
+	// per-chunk slices of a parallel search band
+	double[] bandCost, bandNextCost;
+	long[] bandFixedCost, bandNextFixedCost;
+	int[] bandStart, bandNextStart;
+	byte[] bandFrom;
+
+	static int[] grow(int[] array, int n) {
+		return array != null && array.length >= n ? array : new int[n];
+	}
+
+	static double[] grow(double[] array, int n) {
+		return array != null && array.length >= n ? array : new double[n];
+	}
+
+	static long[] grow(long[] array, int n) {
+		return array != null && array.length >= n ? array : new long[n];
+	}
+
+	static byte[] grow(byte[] array, int n) {
+		return array != null && array.length >= n ? array : new byte[n];
+	}
+
+	static boolean[] grow(boolean[] array, int n) {
+		return array != null && array.length >= n ? array : new boolean[n];
+	}
+}
@@ -0,0 +1,504 @@
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import edu.princeton.cs.algs4.Picture;
+
+// SeamCarver for pictures that do not fit on the heap. pixels live in a
+// temporary file as lines (rows, or columns while transposed, as in SeamCarver)
+// cut into square tiles, each stored contiguously. tiles are paged into direct
+// buffers on demand; once the working set is full the least recently used one
+// is written back (if it changed) and its buffer reused. energies are never
+// stored: the seam search streams through the lines, computing each line's
+// energies from its neighbours, keeps two lines of path costs and spills the
+// backpointers to a second file. switching seam direction transposes the file
+// tile by tile. seams are the same as SeamCarver's
+public class TiledSeamCarver implements Closeable {
+	public static final long DEFAULT_WORKING_SET = 64L << 20;
+	// backpointers go to and come back from the path file in blocks of whole
+	// lines of about this many bytes
+	private static final int PATH_BLOCK = 1 << 20;
+
+	private File pixelFile, pathFile;
+	private FileChannel pixels, paths;
+
+	// tiles are tileSize x tileSize pixels; tilesPerLine covers the line length
+	// at the last transpose, which removals only shorten
+	private int tileSize, tileBytes, tilesPerLine, maxTiles;
+	private boolean transposed;
+	private int width, height;
+	private final LinkedHashMap<Long, Tile> tiles = new LinkedHashMap<>(16, 0.75f, true);
+
+	private static class Tile {
+		final ByteBuffer bytes;
+		final IntBuffer ints;
+		boolean dirty;
+
+		Tile(ByteBuffer bytes) {
+			this.bytes = bytes;
+			this.ints = bytes.asIntBuffer();
+		}
+	}
+
+	// create a tiled seam carver from the given picture
+	public TiledSeamCarver(Picture picture) {
+		this(picture, DEFAULT_WORKING_SET);
+	}
+
+	// workingSet bounds the bytes of tiles held in memory. it is raised if needed
+	// to hold two lines of tiles of the smallest size, since the seam search reads
+	// three neighbouring lines at a time
+	public TiledSeamCarver(Picture picture, long workingSet) {
+		if (picture == null || workingSet <= 0)
+			throw new IllegalArgumentException();
+		try {
+			open(picture.width(), picture.height(), workingSet);
+			int[] line = new int[width];
+			for (int j = 0; j < height; j++) {
+				for (int i = 0; i < width; i++)
+					line[i] = picture.getRGB(i, j);
+				putLine(j, 0, line, 0, width);
+			}
+		} catch (Throwable e) {
+			discard(e);
+			throw e;
+		}
+	}
+
+	// reads the image a band of rows at a time, so it never has to fit in memory
+	// as a whole
+	public TiledSeamCarver(File image, long workingSet) throws IOException {
+		if (image == null || workingSet <= 0)
+			throw new IllegalArgumentException();
+		try (ImageInputStream in = ImageIO.createImageInputStream(image)) {
+			Iterator<ImageReader> readers = in == null ? null : ImageIO.getImageReaders(in);
+			if (readers == null || !readers.hasNext())
+				throw new IllegalArgumentException("unreadable image " + image);
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(in);
+				open(reader.getWidth(0), reader.getHeight(0), workingSet);
+				for (int y = 0; y < height; y += tileSize) {
+					int n = Math.min(tileSize, height - y);
+					ImageReadParam param = reader.getDefaultReadParam();
+					param.setSourceRegion(new Rectangle(0, y, width, n));
+					BufferedImage band = reader.read(0, param);
+					int[] rgb = band.getRGB(0, 0, width, n, null, 0, width);
+					for (int k = 0; k < n; k++)
+						putLine(y + k, 0, rgb, k * width, width);
+				}
+			} finally {
+				reader.dispose();
+			}
+		} catch (Throwable e) {
+			discard(e);
+			throw e;
+		}
+	}
+
+	// closes a half-built carver so its temporary files do not outlive a failed
+	// constructor
+	private void discard(Throwable failure) {
+		try {
+			close();
+		} catch (RuntimeException e) {
+			failure.addSuppressed(e);
+		}
+	}
+
+	// picks the largest tile size, up to 512, for which two lines of tiles fit
+	// the working set in either orientation
+	private void open(int width, int height, long workingSet) {
+		this.width = width;
+		this.height = height;
+		int longest = Math.max(width, height);
+		tileSize = 512;
+		while (tileSize > 8 && 2L * tilesFor(longest) * tileSize * tileSize * 4 > workingSet)
+			tileSize /= 2;
+		tileBytes = tileSize * tileSize * 4;
+		maxTiles = (int) Math.min(Integer.MAX_VALUE, Math.max(2L * tilesFor(longest), workingSet / tileBytes));
+		tilesPerLine = tilesFor(width);
+		try {
+			// deleteOnExit covers a carver that is never closed
+			pixelFile = File.createTempFile("seams", ".px");
+			pixelFile.deleteOnExit();
+			pathFile = File.createTempFile("seams", ".path");
+			pathFile.deleteOnExit();
+			pixels = new RandomAccessFile(pixelFile, "rw").getChannel();
+			paths = new RandomAccessFile(pathFile, "rw").getChannel();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private int tilesFor(int positions) {
+		return (positions + tileSize - 1) / tileSize;
+	}
+
+	// current picture; it has to fit in memory
+	public Picture picture() {
+		Picture picture = new Picture(width, height);
+		int[] line = new int[lineLength()];
+		for (int j = 0; j < lineCount(); j++) {
+			getLine(j, 0, line, 0, line.length);
+			for (int i = 0; i < line.length; i++) {
+				if (transposed)
+					picture.setRGB(j, i, line[i]);
+				else
+					picture.setRGB(i, j, line[i]);
+			}
+		}
+		return picture;
+	}
+
+	// width of current picture
+	public int width() {
+		return width;
+	}
+
+	// height of current picture
+	public int height() {
+		return height;
+	}
+
+	// pixels per line and number of lines in the current orientation
+	private int lineLength() {
+		return transposed ? height : width;
+	}
+
+	private int lineCount() {
+		return transposed ? width : height;
+	}
+
+	// energy of pixel at column x and row y
+	public double energy(int x, int y) {
+		if (x < 0 || x >= width || y < 0 || y >= height)
+			throw new IllegalArgumentException();
+		if (x == 0 || x == width - 1 || y == 0 || y == height - 1)
+			return 1000;
+		// the four neighbours around the middle of a 3 x 3 block
+		int[] block = new int[9];
+		block[1] = pixel(x, y - 1);
+		block[3] = pixel(x - 1, y);
+		block[5] = pixel(x + 1, y);
+		block[7] = pixel(x, y + 1);
+		return Math.sqrt(EnergyKernel.gradient(block, 4, 3));
+	}
+
+	// pixel at column x and row y
+	private int pixel(int x, int y) {
+		int i = transposed ? y : x, j = transposed ? x : y;
+		return tile(j / tileSize, i / tileSize).ints.get((j % tileSize) * tileSize + i % tileSize);
+	}
+
+	// energies of line j. window holds lines j - 1, j and j + 1 back to back,
+	// so the interior goes through the same EnergyKernel as SeamCarver's
+	private void lineEnergies(int j, int[] window, double[] energy) {
+		int length = lineLength();
+		if (j == 0 || j == lineCount() - 1 || length < 3) {
+			Arrays.fill(energy, 0, length, 1000);
+			return;
+		}
+		energy[0] = 1000;
+		energy[length - 1] = 1000;
+		EnergyKernel.get().energies(window, length + 1, length, length - 2, energy, 1);
+	}
+
+	// the tile at tile row tr and tile column tc, paged in if needed
+	private Tile tile(int tr, int tc) {
+		long key = (long) tr * tilesPerLine + tc;
+		Tile tile = tiles.get(key);
+		if (tile != null)
+			return tile;
+
+		ByteBuffer bytes;
+		if (tiles.size() >= maxTiles) {
+			Iterator<Map.Entry<Long, Tile>> eldest = tiles.entrySet().iterator();
+			Map.Entry<Long, Tile> entry = eldest.next();
+			eldest.remove();
+			writeBack(entry.getKey(), entry.getValue());
+			bytes = entry.getValue().bytes;
+		} else {
+			bytes = ByteBuffer.allocateDirect(tileBytes).order(ByteOrder.nativeOrder());
+		}
+		read(pixels, bytes, key * tileBytes);
+		tile = new Tile(bytes);
+		tiles.put(key, tile);
+		return tile;
+	}
+
+	private void writeBack(long key, Tile tile) {
+		if (!tile.dirty)
+			return;
+		write(pixels, tile.bytes, key * tileBytes);
+		tile.dirty = false;
+	}
+
+	// writes back every changed tile and empties the cache
+	private void flush() {
+		for (Map.Entry<Long, Tile> entry : tiles.entrySet())
+			writeBack(entry.getKey(), entry.getValue());
+		tiles.clear();
+	}
+
+	// fills the buffer from the given file position; past the end of the file the
+	// buffer keeps whatever it held, which is never read
+	private static void read(FileChannel channel, ByteBuffer buffer, long position) {
+		buffer.clear();
+		try {
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, position + buffer.position()) < 0)
+					break;
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		buffer.clear();
+	}
+
+	private static void write(FileChannel channel, ByteBuffer buffer, long position) {
+		buffer.clear();
+		try {
+			while (buffer.hasRemaining())
+				channel.write(buffer, position + buffer.position());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		buffer.clear();
+	}
+
+	// copies n positions of line j starting at from into dst[off..]
+	private void getLine(int j, int from, int[] dst, int off, int n) {
+		int tr = j / tileSize, row = (j % tileSize) * tileSize;
+		while (n > 0) {
+			int c = from % tileSize, m = Math.min(n, tileSize - c);
+			IntBuffer ints = tile(tr, from / tileSize).ints.duplicate();
+			ints.position(row + c);
+			ints.get(dst, off, m);
+			from += m;
+			off += m;
+			n -= m;
+		}
+	}
+
+	// copies src[off..off+n-1] into line j starting at position from
+	private void putLine(int j, int from, int[] src, int off, int n) {
+		int tr = j / tileSize, row = (j % tileSize) * tileSize;
+		while (n > 0) {
+			int c = from % tileSize, m = Math.min(n, tileSize - c);
+			Tile tile = tile(tr, from / tileSize);
+			IntBuffer ints = tile.ints.duplicate();
+			ints.position(row + c);
+			ints.put(src, off, m);
+			tile.dirty = true;
+			from += m;
+			off += m;
+			n -= m;
+		}
+	}
+
+	// makes lines run across the seam direction, rewriting the file with every
+	// tile transposed into its mirrored place. only two tiles are in memory
+	private void orient(boolean vertical) {
+		if (transposed != vertical)
+			return;
+		flush();
+		int lines = lineCount(), length = lineLength();
+		int newTilesPerLine = tilesFor(lines);
+		ByteBuffer in = ByteBuffer.allocateDirect(tileBytes).order(ByteOrder.nativeOrder());
+		ByteBuffer out = ByteBuffer.allocateDirect(tileBytes).order(ByteOrder.nativeOrder());
+		IntBuffer inInts = in.asIntBuffer(), outInts = out.asIntBuffer();
+		try {
+			File file = File.createTempFile("seams", ".px");
+			file.deleteOnExit();
+			FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+			try {
+				for (int tr = 0; tr < tilesFor(lines); tr++) {
+					for (int tc = 0; tc < tilesFor(length); tc++) {
+						read(pixels, in, ((long) tr * tilesPerLine + tc) * tileBytes);
+						for (int r = 0; r < tileSize; r++)
+							for (int c = 0; c < tileSize; c++)
+								outInts.put(c * tileSize + r, inInts.get(r * tileSize + c));
+						write(channel, out, ((long) tc * newTilesPerLine + tr) * tileBytes);
+					}
+				}
+			} catch (RuntimeException e) {
+				channel.close();
+				file.delete();
+				throw e;
+			}
+			pixels.close();
+			pixelFile.delete();
+			pixels = channel;
+			pixelFile = file;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		tilesPerLine = newTilesPerLine;
+		transposed = !vertical;
+	}
+
+	// the same dynamic-programming search as SeamCarver, one line at a time and
+	// with its relax step. three lines of pixels, two of costs and starts, and
+	// a block of backpointer lines are in memory; each full block goes to the
+	// path file in one write, and the trace reads it back a block at a time
+	private int[] findSeam(boolean vertical) {
+		orient(vertical);
+		int length = lineCount();
+		int breadth = lineLength();
+
+		double[] cost = new double[breadth];
+		double[] nextCost = new double[breadth];
+		int[] start = new int[breadth];
+		int[] nextStart = new int[breadth];
+		for (int i = 0; i < breadth; i++)
+			start[i] = i;
+
+		int[] window = new int[3 * breadth];
+		double[] energy = new double[breadth];
+		int block = Math.max(1, PATH_BLOCK / breadth);
+		byte[] from = new byte[block * breadth];
+		// first line of the block in from; line 0 has no backpointers
+		int first = 1;
+		getLine(0, 0, window, breadth, breadth);
+		if (length > 1)
+			getLine(1, 0, window, 2 * breadth, breadth);
+		for (int j = 1; j < length; j++) {
+			System.arraycopy(window, breadth, window, 0, 2 * breadth);
+			if (j + 1 < length)
+				getLine(j + 1, 0, window, 2 * breadth, breadth);
+			lineEnergies(j, window, energy);
+
+			if (j - first == block) {
+				writePaths(from, first, block, breadth);
+				first = j;
+			}
+			SeamCarver.relaxLine(energy, 0, 0, breadth, breadth, cost, start, nextCost, nextStart, 0, from,
+					(j - first) * breadth);
+
+			double[] swapCost = cost;
+			cost = nextCost;
+			nextCost = swapCost;
+			int[] swapStart = start;
+			start = nextStart;
+			nextStart = swapStart;
+		}
+
+		// the last block is still in from, so it is not written at all
+		int end = SeamCarver.cheapestEnd(cost, start, breadth);
+		int[] seam = new int[length];
+		for (int j = length - 1; j > 0; j--) {
+			if (j < first) {
+				first = Math.max(1, j - block + 1);
+				readPaths(from, first, j - first + 1, breadth);
+			}
+			seam[j] = end;
+			end += from[(j - first) * breadth + end];
+		}
+		seam[0] = end;
+		return seam;
+	}
+
+	// backpointer lines first .. first + lines - 1, to and from from[0..]
+	private void writePaths(byte[] from, int first, int lines, int breadth) {
+		write(paths, ByteBuffer.wrap(from, 0, lines * breadth).slice(), (long) first * breadth);
+	}
+
+	private void readPaths(byte[] from, int first, int lines, int breadth) {
+		read(paths, ByteBuffer.wrap(from, 0, lines * breadth).slice(), (long) first * breadth);
+	}
+
+	// sequence of indices for horizontal seam
+	public int[] findHorizontalSeam() {
+		return findSeam(false);
+	}
+
+	// sequence of indices for vertical seam
+	public int[] findVerticalSeam() {
+		return findSeam(true);
+	}
+
+	// remove horizontal seam from current picture
+	public void removeHorizontalSeam(int[] seam) {
+		if (seam == null || seam.length != width || height <= 1)
+			throw new IllegalArgumentException();
+		removeSeam(seam, false);
+	}
+
+	// remove vertical seam from current picture
+	public void removeVerticalSeam(int[] seam) {
+		if (seam == null || seam.length != height || width <= 1)
+			throw new IllegalArgumentException();
+		removeSeam(seam, true);
+	}
+
+	// shifts the tail of every line over the seam, streaming through the tiles
+	private void removeSeam(int[] seam, boolean vertical) {
+		int breadth = vertical ? width : height;
+		for (int i = 0; i < seam.length; i++) {
+			if (seam[i] < 0 || seam[i] >= breadth || (i != seam.length - 1 && (seam[i] - seam[i + 1] > 1 || seam[i] - seam[i + 1] < -1)))
+				throw new IllegalArgumentException();
+		}
+
+		orient(vertical);
+		int[] tail = new int[breadth];
+		for (int j = 0; j < seam.length; j++) {
+			int n = breadth - seam[j] - 1;
+			getLine(j, seam[j] + 1, tail, 0, n);
+			putLine(j, seam[j], tail, 0, n);
+		}
+
+		if (vertical)
+			width--;
+		else
+			height--;
+	}
+
+	// drops the cached tiles and deletes the temporary files
+	public void close() {
+		tiles.clear();
+		try {
+			// fields are null if the constructor failed part way
+			if (pixels != null)
+				pixels.close();
+			if (paths != null)
+				paths.close();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			if (pixelFile != null)
+				pixelFile.delete();
+			if (pathFile != null)
+				pathFile.delete();
+		}
+	}
+
+	// java TiledSeamCarver input.png columns rows workingSetMB output.png
+	public static void main(String[] args) throws IOException {
+		long workingSet = Long.parseLong(args[3]) << 20;
+		try (TiledSeamCarver sc = new TiledSeamCarver(new File(args[0]), workingSet)) {
+			for (int i = 0; i < Integer.parseInt(args[1]); i++)
+				sc.removeVerticalSeam(sc.findVerticalSeam());
+			for (int i = 0; i < Integer.parseInt(args[2]); i++)
+				sc.removeHorizontalSeam(sc.findHorizontalSeam());
+			sc.picture().save(args[4]);
+		}
+	}
+}
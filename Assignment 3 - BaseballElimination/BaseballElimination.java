@@ -5,6 +5,8 @@ import edu.princeton.cs.algs4.In;
 import edu.princeton.cs.algs4.StdOut;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 
@@ -159,6 +161,87 @@ public class BaseballElimination {
         return ((int) ff.value()) != maxFlowPossible;
     }                   // is given team eliminated?
 
+    // decides every team at once. elimination is monotone in the most wins a
+    // team can reach, w + r (Wayne, "A new property and a faster algorithm for
+    // baseball elimination"): if a team is eliminated, so is every team that
+    // can reach at most as many. so the teams are sorted by w + r and the
+    // cut-off is found by binary search, with O(log n) max-flow runs
+    public void eliminateAll() {
+        Integer[] order = new Integer[teamCount];
+        for (int i = 0; i < teamCount; i++)
+            order[i] = i;
+        Arrays.sort(order, Comparator.comparingInt(this::maxWins));
+
+        // order[0..lo - 1] are eliminated, order[hi..] are not
+        int lo = 0, hi = teamCount;
+        while (lo < hi)
+        {
+            int mid = (lo + hi) / 2;
+            if (isEliminated(teams.get(order[mid]).getName()))
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        for (int k = lo; k < teamCount; k++)
+            eliminated[order[k]] = 0;
+        if (lo == 0)
+            return;
+        // the search proved order[lo - 1] out, but a trivial elimination only
+        // stores its certificate
+        eliminated[order[lo - 1]] = 1;
+
+        // the set that eliminates the last eliminated team reaches more wins per
+        // team than it can, so it usually proves the weaker teams out as well;
+        // only teams it does not work for get a max flow of their own
+        List<String> proof = certificates.get(order[lo - 1]);
+        for (int k = 0; k < lo - 1; k++)
+        {
+            int teamId = order[k];
+            if (eliminated[teamId] != -1)
+                continue;
+            if (certificates.get(teamId) != null)
+            {
+                // already proven out by one team that has more wins than it can reach
+                eliminated[teamId] = 1;
+                continue;
+            }
+            List<String> certificate = certify(proof, teamId);
+            if (certificate == null)
+            {
+                isEliminated(teams.get(teamId).getName());
+                continue;
+            }
+            certificates.set(teamId, certificate);
+            eliminated[teamId] = 1;
+        }
+    }                                     // decide elimination for every team at once
+
+    private int maxWins(int teamId)
+    {
+        return teams.get(teamId).getW() + teams.get(teamId).getR();
+    }
+
+    // the teams of proof other than teamId, if they still eliminate it: their
+    // wins plus the games left among them, spread over the set, exceed what
+    // teamId can reach. null otherwise
+    private List<String> certify(List<String> proof, int teamId)
+    {
+        List<String> certificate = new ArrayList<>();
+        long wins = 0, games = 0;
+        for (String name : proof)
+        {
+            int i = map.get(name);
+            if (i == teamId) continue;
+            wins += teams.get(i).getW();
+            for (String other : certificate)
+                games += teams.get(i).getMatches()[map.get(other)];
+            certificate.add(name);
+        }
+        if (certificate.isEmpty() || wins + games <= (long) certificate.size() * maxWins(teamId))
+            return null;
+        return certificate;
+    }
+
     public Iterable<String> certificateOfElimination(String team) {
         if (!map.containsKey(team))
             throw new IllegalArgumentException();
@@ -173,6 +256,7 @@ public class BaseballElimination {
     public static void main(String[] args)
     {
         BaseballElimination division = new BaseballElimination("teams54.txt");
+        division.eliminateAll();
         for (String team : division.teams()) {
             if (division.isEliminated(team)) {
                 StdOut.print(team + " is eliminated by the subset R = { ");